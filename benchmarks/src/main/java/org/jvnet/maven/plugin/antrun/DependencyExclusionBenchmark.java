@@ -0,0 +1,31 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DependencyExclusionFilter#filter(DependencyGraph)}, which walks all the paths
+ * as long as there are exclusions in effect.
+ *
+ * <p>
+ * Without exclusions the walk degenerates into a plain traversal, so run this with
+ * something like <tt>-p exclusionDensity=0,0.05,0.2</tt> to see the interesting cases.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(value=1, jvmArgsAppend="-Xss64m")
+public class DependencyExclusionBenchmark {
+    @Benchmark
+    public DependencyGraph filter(GraphState s) {
+        return new DependencyExclusionFilter().filter(s.graph);
+    }
+}
@@ -0,0 +1,47 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of a full {@link DependencyGraph} by BFS,
+ * which is dominated by POM building and node/edge bookkeeping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(value=1, jvmArgsAppend="-Xss64m")
+public class GraphConstructionBenchmark {
+    @Benchmark
+    public DependencyGraph build(GraphState s) throws Exception {
+        // start from a new bag every time, or else all the POMs come from its cache
+        s.stubs.install();
+        return new DependencyGraph(s.root,false);
+    }
+
+    /**
+     * Construction followed by the exclusion processing that {@link DependencyGraphTask} always does.
+     */
+    @Benchmark
+    public DependencyGraph buildWithExclusions(GraphState s) throws Exception {
+        s.stubs.install();
+        return new DependencyExclusionFilter().filter(new DependencyGraph(s.root,false));
+    }
+
+    /**
+     * Construction when all the POMs are already built by an earlier graph in the same execution,
+     * which is the common case when a build script uses several graph tasks.
+     */
+    @Benchmark
+    public DependencyGraph buildWithCachedProjects(GraphState s) throws Exception {
+        return new DependencyGraph(s.root,false);
+    }
+}
@@ -0,0 +1,126 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.maven.model.Model;
+import org.apache.tools.ant.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link GraphFilter#process()} of each filter implementation,
+ * applied to the full graph just like the filters nested in &lt;resolveAll> or &lt;graphDef>.
+ *
+ * <p>
+ * &lt;visualize> is not included, as it needs GraphViz; see {@link GraphOperationsBenchmark#visualize}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(value=1, jvmArgsAppend="-Xss64m")
+public class GraphFilterBenchmark {
+    @State(Scope.Thread)
+    public static class FilterState {
+        @Param({"scope","packaging","groupId","manifestEntry","excludeArtifactsTransitively",
+                "removeSpecificArtifacts","retentionSet","dependencyExclusion","subtract",
+                "subGraph","fullGraph","graphRef","dumpGraph"})
+        public String filter;
+
+        public GraphFilter instance;
+
+        @Setup(Level.Trial)
+        public void setUp(GraphState s) {
+            Project p = new Project();
+            p.addReference("graph",s.graph);
+            instance = create(s,p,filter);
+            GraphFilter.CURRENT_INPUT.set(s.graph);
+        }
+
+        private GraphFilter create(GraphState s, Project p, String name) {
+            Model pivot = s.graphs.getPivot();
+            GraphFilter f;
+            if(name.equals("scope")) {
+                ScopeFilter sf = new ScopeFilter();
+                sf.setLevel("compile,runtime");
+                f = sf;
+            } else
+            if(name.equals("packaging")) {
+                PackagingFilter pf = new PackagingFilter();
+                pf.setNot("pom");
+                f = pf;
+            } else
+            if(name.equals("groupId")) {
+                GroupIdFilter gf = new GroupIdFilter();
+                gf.setNot(s.graphs.getLast().getGroupId());
+                f = gf;
+            } else
+            if(name.equals("manifestEntry")) {
+                ManifestEntryFilter mf = new ManifestEntryFilter();
+                mf.setHas(StubComponents.MANIFEST_ENTRY);
+                f = mf;
+            } else
+            if(name.equals("excludeArtifactsTransitively")) {
+                ExcludeArtifactsTransitivelyFilter ef = new ExcludeArtifactsTransitivelyFilter();
+                ef.addConfiguredArtifact(s.toElement(pivot));
+                f = ef;
+            } else
+            if(name.equals("removeSpecificArtifacts")) {
+                RemoveSpecificArtifactsFilter rf = new RemoveSpecificArtifactsFilter();
+                rf.addConfiguredArtifact(s.toElement(pivot));
+                f = rf;
+            } else
+            if(name.equals("retentionSet")) {
+                RetentionSetFilter rf = new RetentionSetFilter();
+                rf.addConfiguredArtifact(s.toElement(pivot));
+                f = rf;
+            } else
+            if(name.equals("dependencyExclusion")) {
+                f = new DependencyExclusionFilter();
+            } else
+            if(name.equals("subtract")) {
+                f = new SubtractFilter();
+                f.add(new FullGraphFilter());
+                f.add(create(s,p,"subGraph"));
+            } else
+            if(name.equals("subGraph")) {
+                SubGraphFilter sf = new SubGraphFilter();
+                sf.setGroupId(pivot.getGroupId());
+                sf.setArtifactId(pivot.getArtifactId());
+                sf.setVersion(pivot.getVersion());
+                sf.setType("jar");
+                f = sf;
+            } else
+            if(name.equals("fullGraph")) {
+                f = new FullGraphFilter();
+            } else
+            if(name.equals("graphRef")) {
+                GraphRefFilter gf = new GraphRefFilter();
+                gf.setRefid("graph");
+                f = gf;
+            } else
+            if(name.equals("dumpGraph")) {
+                f = new DumpGraphFilter();
+            } else
+                throw new IllegalArgumentException(name);
+
+            f.setProject(p);
+            return f;
+        }
+    }
+
+    @Benchmark
+    public DependencyGraph process(GraphState s, FilterState f) {
+        return f.instance.process();
+    }
+}
@@ -0,0 +1,73 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the basic operations on an already constructed {@link DependencyGraph}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(value=1, jvmArgsAppend="-Xss64m")
+public class GraphOperationsBenchmark {
+    /**
+     * Traversal-based sub-graph creation, the workhorse of all the filters.
+     */
+    @Benchmark
+    public DependencyGraph createSubGraph(GraphState s) {
+        return s.graph.createSubGraph(new DefaultGraphVisitor());
+    }
+
+    /**
+     * Node-set based sub-graph creation, used by exclusion processing.
+     */
+    @Benchmark
+    public DependencyGraph createSubGraphFromNodes(GraphState s) {
+        return s.graph.createSubGraph(s.graph.getRoot(),s.graph.getAllNodes());
+    }
+
+    @Benchmark
+    public void contains(GraphState s, Blackhole bh) {
+        for (DependencyGraph.Node n : s.graph.getAllNodes())
+            bh.consume(s.graph.contains(n));
+    }
+
+    @Benchmark
+    public void getTrail(GraphState s, Blackhole bh) {
+        for (DependencyGraph.Node n : s.graph.getAllNodes())
+            bh.consume(n.getTrail(s.graph));
+    }
+
+    /**
+     * GraphViz output without the 'dot' process, which is what &lt;visualize> does.
+     */
+    @Benchmark
+    public void visualize(GraphState s) throws IOException {
+        GraphVizVisualizer viz = new GraphVizVisualizer(NULL_WRITER);
+        viz.write(s.graph);
+        viz.close();
+    }
+
+    private static final Writer NULL_WRITER = new Writer() {
+        public void write(char[] buf, int off, int len) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    };
+}
@@ -0,0 +1,75 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Model;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Common benchmark state: a synthetic graph of the parameterized shape and size,
+ * the {@link MavenComponentBag} that serves it, and the fully built {@link DependencyGraph}.
+ *
+ * <p>
+ * The state is per thread, because {@link MavenComponentBag} is associated with the thread
+ * that created it.
+ */
+@State(Scope.Thread)
+public class GraphState {
+    @Param({"CHAIN","FANOUT","DIAMOND","REALISTIC"})
+    public SyntheticGraphs.Shape shape;
+
+    @Param({"100","1000","10000"})
+    public int size;
+
+    /**
+     * Probability that a declared dependency carries an exclusion.
+     */
+    @Param({"0"})
+    public double exclusionDensity;
+
+    public SyntheticGraphs graphs;
+    public StubComponents stubs;
+    public MavenComponentBag bag;
+
+    /**
+     * The artifact of the root module.
+     */
+    public Artifact root;
+
+    /**
+     * Graph built from {@link #root}, after exclusions are applied,
+     * just like {@link DependencyGraphTask} computes it.
+     */
+    public DependencyGraph graph;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        graphs = new SyntheticGraphs(shape,size,exclusionDensity);
+        stubs = new StubComponents(graphs);
+        bag = stubs.install();
+        root = bag.project.getArtifact();
+        graph = new DependencyExclusionFilter().filter(new DependencyGraph(root,false));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GraphFilter.CURRENT_INPUT.set(null);
+        MavenComponentBag.reset();
+    }
+
+    /**
+     * Creates an &lt;artifact> element that points to the given module.
+     */
+    public ArtifactElement toElement(Model m) {
+        ArtifactElement e = new ArtifactElement();
+        e.setGroupId(m.getGroupId());
+        e.setArtifactId(m.getArtifactId());
+        e.setVersion(m.getVersion());
+        e.setType("jar");
+        return e;
+    }
+}
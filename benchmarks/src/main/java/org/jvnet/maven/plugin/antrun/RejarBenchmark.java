@@ -0,0 +1,88 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.jvnet.maven.plugin.antrun.testsupport.LocalRepositoryGenerator;
+import org.jvnet.maven.plugin.antrun.testsupport.RepositorySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures &lt;rejar> merging jars of a generated repository into one,
+ * which exercises the I/O path and the META-INF/services merging.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=2)
+@Measurement(iterations=5)
+@Fork(1)
+@State(Scope.Thread)
+public class RejarBenchmark {
+    @Param({"100","500"})
+    public int jars;
+
+    @Param({"16k","256k"})
+    public String jarSize;
+
+    private File repository;
+    private File dest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        repository = createTempDir("repo");
+        dest = new File(createTempDir("dest"),"merged.jar");
+        new LocalRepositoryGenerator(RepositorySpec.parse("nodes="+jars+",jarsize="+jarSize)).generate(repository);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(repository);
+        delete(dest.getParentFile());
+    }
+
+    @Benchmark
+    public File rejar() {
+        // otherwise the up-to-date check kicks in
+        dest.delete();
+
+        RejarTask rejar = new RejarTask();
+        rejar.setProject(new Project());
+        rejar.setDestFile(dest);
+        FileSet fs = new FileSet();
+        fs.setDir(repository);
+        fs.setIncludes("**/*.jar");
+        rejar.addZipGroupFileset(fs);
+        rejar.execute();
+        return dest;
+    }
+
+    private static File createTempDir(String prefix) throws IOException {
+        File f = File.createTempFile(prefix,"");
+        f.delete();
+        f.mkdirs();
+        return f;
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if(children!=null)
+            for (File c : children)
+                delete(c);
+        f.delete();
+    }
+}
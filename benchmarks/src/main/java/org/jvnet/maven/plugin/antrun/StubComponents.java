@@ -0,0 +1,158 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Stand-ins for the Maven components that {@link MavenComponentBag} exposes,
+ * backed by {@link SyntheticGraphs} instead of real repositories.
+ *
+ * <p>
+ * Only the methods that the graph engine actually uses are implemented.
+ * Everything else throws {@link UnsupportedOperationException}, so that a benchmark
+ * doesn't silently measure something other than what it claims to.
+ */
+public final class StubComponents {
+    /**
+     * Manifest main attribute present in {@link #getJar() the jar} that every artifact resolves to.
+     */
+    public static final String MANIFEST_ENTRY = "Bench-Entry";
+
+    private final SyntheticGraphs graphs;
+    private final Map<String,ArtifactHandler> handlers = new HashMap<String,ArtifactHandler>();
+    private final File jar;
+
+    public StubComponents(SyntheticGraphs graphs) throws IOException {
+        this.graphs = graphs;
+        this.jar = createJar();
+    }
+
+    /**
+     * Creates a new {@link MavenComponentBag} and associates it with the current thread,
+     * just like {@link AntRunMojo} does.
+     */
+    public MavenComponentBag install() {
+        Model root = graphs.getRoot();
+        MavenProject project = new MavenProject(root);
+        project.setArtifact(createArtifact(root.getGroupId(),root.getArtifactId(),root.getVersion(),null,"jar",null));
+        // as if the current module has already been packaged
+        project.getArtifact().setFile(jar);
+
+        MavenComponentBag bag = new MavenComponentBag(
+            proxy(ArtifactResolver.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if(method.getName().equals("resolve")) {
+                        Artifact a = (Artifact) args[0];
+                        a.setFile(jar);
+                        a.setResolved(true);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            }),
+            proxy(ArtifactFactory.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    String g = (String) args[0];
+                    String a = (String) args[1];
+                    if(name.equals("createProjectArtifact") && args.length==3)
+                        return createArtifact(g,a,(String)args[2],null,"pom",null);
+                    if(name.equals("createDependencyArtifact") && args.length>=6)
+                        return createArtifact(g,a,(VersionRange)args[2],(String)args[5],(String)args[3],(String)args[4]);
+                    if(name.equals("createArtifactWithClassifier"))
+                        return createArtifact(g,a,(String)args[2],null,(String)args[3],(String)args[4]);
+                    if(name.equals("createArtifact"))
+                        return createArtifact(g,a,(String)args[2],(String)args[3],(String)args[4],null);
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            }),
+            null,
+            Collections.EMPTY_LIST,
+            project,
+            null,
+            null,
+            null,
+            proxy(MavenProjectBuilder.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws ProjectBuildingException {
+                    if(method.getName().equals("buildFromRepository")) {
+                        Artifact a = (Artifact) args[0];
+                        Model m = graphs.get(a.getGroupId(),a.getArtifactId(),a.getVersion());
+                        if(m==null)
+                            throw new ProjectBuildingException(a.getId(),"No such synthetic POM");
+                        // a real builder creates a new instance every time, too
+                        return new MavenProject(m);
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            }));
+        bag.setVerifyArtifact(false);
+        return bag;
+    }
+
+    /**
+     * A tiny jar file that every artifact resolves to.
+     */
+    public File getJar() {
+        return jar;
+    }
+
+    private Artifact createArtifact(String groupId, String artifactId, String version, String scope, String type, String classifier) {
+        return createArtifact(groupId,artifactId,VersionRange.createFromVersion(version),scope,type,classifier);
+    }
+
+    private Artifact createArtifact(String groupId, String artifactId, VersionRange version, String scope, String type, String classifier) {
+        ArtifactHandler h = handlers.get(type);
+        if(h==null)
+            handlers.put(type,h=new DefaultArtifactHandler(type));
+        return new DefaultArtifact(groupId,artifactId,version,scope,type,classifier,h);
+    }
+
+    private static File createJar() throws IOException {
+        File f = File.createTempFile("bench",".jar");
+        f.deleteOnExit();
+
+        Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,"1.0");
+        m.getMainAttributes().putValue(MANIFEST_ENTRY,"true");
+        new JarOutputStream(new FileOutputStream(f),m).close();
+        return f;
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler h) {
+        return type.cast(Proxy.newProxyInstance(StubComponents.class.getClassLoader(),new Class[]{type},new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                // equals/hashCode/toString
+                if(method.getDeclaringClass()==Object.class) {
+                    if(method.getName().equals("equals"))
+                        return proxy==args[0];
+                    if(method.getName().equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    return "Stub "+type.getSimpleName();
+                }
+                return h.invoke(proxy,method,args);
+            }
+        }));
+    }
+}
@@ -0,0 +1,170 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic POM graphs of various shapes for benchmarking.
+ *
+ * <p>
+ * POMs are kept in memory as {@link Model}s keyed by "groupId:artifactId:version",
+ * and served to {@link DependencyGraph} through {@link StubComponents}.
+ * All the generation is driven by a fixed seed, so the same parameters always
+ * produce the same graph.
+ */
+public final class SyntheticGraphs {
+    public enum Shape {
+        /**
+         * a0 -> a1 -> a2 -> ... Deepest possible graph.
+         */
+        CHAIN,
+        /**
+         * a0 -> a1, a0 -> a2, ... Widest possible graph.
+         */
+        FANOUT,
+        /**
+         * Stacked diamonds: a0 -> {a1,a2} -> a3 -> {a4,a5} -> a6 ...
+         */
+        DIAMOND,
+        /**
+         * Random DAG modelled after real-world projects: shallow and bushy,
+         * with a mix of scopes, optional dependencies, and pom-packaged modules.
+         */
+        REALISTIC
+    }
+
+    public static final String VERSION = "1.0";
+
+    private final Map<String,Model> models = new HashMap<String,Model>();
+    private final List<Model> nodes = new ArrayList<Model>();
+    private final Random random = new Random(42);
+
+    /**
+     * Probability that a declared dependency carries an exclusion.
+     */
+    private final double exclusionDensity;
+
+    public SyntheticGraphs(Shape shape, int size, double exclusionDensity) {
+        this.exclusionDensity = exclusionDensity;
+
+        for( int i=0; i<size; i++ ) {
+            Model m = new Model();
+            m.setModelVersion("4.0.0");
+            // spread artifacts over groups of 20 or so, just like real projects
+            m.setGroupId("bench.g"+(i/20));
+            m.setArtifactId("a"+i);
+            m.setVersion(VERSION);
+            m.setPackaging(shape==Shape.REALISTIC && i>0 && random.nextInt(10)==0 ? "pom" : "jar");
+            nodes.add(m);
+            models.put(m.getGroupId()+':'+m.getArtifactId()+':'+m.getVersion(),m);
+        }
+
+        switch (shape) {
+        case CHAIN:
+            for( int i=1; i<size; i++ )
+                addDependency(i-1,i,"compile",false);
+            break;
+        case FANOUT:
+            for( int i=1; i<size; i++ )
+                addDependency(0,i,"compile",false);
+            break;
+        case DIAMOND:
+            // every 3 nodes form a diamond with the next top node
+            for( int top=0; top<size; top+=3 ) {
+                for( int side=top+1; side<=top+2 && side<size; side++ ) {
+                    addDependency(top,side,"compile",false);
+                    if(top+3<size)
+                        addDependency(side,top+3,"compile",false);
+                }
+            }
+            break;
+        case REALISTIC:
+            for( int i=1; i<size; i++ ) {
+                // spanning tree edge, so that everything is reachable from the root.
+                // picking a random earlier node gives a logarithmic depth.
+                addDependency(random.nextInt(i),i,"compile",false);
+            }
+            for( int i=0; i<size-1; i++ ) {
+                // then extra edges that create diamonds and version conflicts
+                int extra = random.nextInt(4);
+                for( int j=0; j<extra; j++ ) {
+                    int dst = i+1+random.nextInt(Math.min(size-i-1,200));
+                    addDependency(i,dst,randomScope(),random.nextInt(20)==0);
+                }
+            }
+            break;
+        }
+    }
+
+    private String randomScope() {
+        int r = random.nextInt(20);
+        if(r<13)    return "compile";
+        if(r<16)    return "test";
+        if(r<18)    return "runtime";
+        return "provided";
+    }
+
+    private void addDependency(int src, int dst, String scope, boolean optional) {
+        Model s = nodes.get(src);
+        Model d = nodes.get(dst);
+
+        Dependency dep = new Dependency();
+        dep.setGroupId(d.getGroupId());
+        dep.setArtifactId(d.getArtifactId());
+        dep.setVersion(d.getVersion());
+        dep.setType("jar");
+        dep.setScope(scope);
+        dep.setOptional(optional);
+
+        if(exclusionDensity>0 && random.nextDouble()<exclusionDensity) {
+            Model x = nodes.get(random.nextInt(nodes.size()));
+            Exclusion exc = new Exclusion();
+            exc.setGroupId(x.getGroupId());
+            exc.setArtifactId(x.getArtifactId());
+            dep.addExclusion(exc);
+        }
+
+        s.addDependency(dep);
+    }
+
+    /**
+     * Finds the POM of the given module, or null if no such module exists.
+     */
+    public Model get(String groupId, String artifactId, String version) {
+        return models.get(groupId+':'+artifactId+':'+version);
+    }
+
+    /**
+     * The top-level module, which depends on everything else transitively.
+     */
+    public Model getRoot() {
+        return nodes.get(0);
+    }
+
+    /**
+     * A module right below the root, which is a good candidate for filters
+     * that take an artifact as a parameter.
+     */
+    public Model getPivot() {
+        Dependency d = (Dependency)getRoot().getDependencies().get(0);
+        return get(d.getGroupId(),d.getArtifactId(),d.getVersion());
+    }
+
+    /**
+     * The module generated last, which is usually the furthest from the root.
+     */
+    public Model getLast() {
+        return nodes.get(nodes.size()-1);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.tools.ant.taskdefs.Typedef;
 
 import java.beans.Introspector;
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.net.URLClassLoader;
 import java.net.MalformedURLException;
@@ -112,6 +113,51 @@ public class AntRunMojo
      */
     private boolean verifyArtifact=true;
 
+    /**
+     * If true, the timing and other statistics of the antrun-extended tasks
+     * are written to <tt>target/antrun-extended-statistics.json</tt>, and a summary is logged.
+     * Otherwise the summary is only logged at the debug level.
+     *
+     * @parameter expression="${antrun.statistics}" default-value="false"
+     */
+    private boolean writeStatistics;
+
+    /**
+     * If set, a timeline of the antrun-extended tasks &mdash; every POM load, artifact resolution,
+     * filter, copy and rejar &mdash; is written to this file in the Chrome trace-event format.
+     * Open it in <tt>chrome://tracing</tt> to see where the time went.
+     *
+     * @parameter expression="${antrun.trace}"
+     */
+    private File traceFile;
+
+    /**
+     * How long, in minutes, to remember that an artifact failed to resolve or a POM failed to build.
+     * Until then, subsequent attempts fail right away instead of contacting remote repositories again.
+     * Failures are remembered across builds in the local repository. 0 disables this.
+     *
+     * @parameter expression="${antrun.negativeCacheLifetime}" default-value="0"
+     */
+    private int negativeCacheLifetime;
+
+    /**
+     * If true, dependency graphs don't hold on to parsed POMs, which cuts down
+     * the memory usage considerably for graphs with thousands of artifacts,
+     * at the expense of parsing POMs again when they are needed later.
+     *
+     * @parameter expression="${antrun.leanGraphs}" default-value="false"
+     */
+    private boolean leanGraphs;
+
+    /**
+     * If true, version ranges in dependencies are resolved against the versions available
+     * in the repositories, instead of being taken literally. Versions requested for the same module
+     * that lose to the nearest one are reported.
+     *
+     * @parameter expression="${antrun.versionRanges}" default-value="false"
+     */
+    private boolean resolveVersionRanges;
+
     /**
      * Used for resolving artifacts
      *
@@ -189,6 +235,8 @@ public class AntRunMojo
             executeTasks( tasks, project, pluginArtifacts );
         } finally {
             MavenComponentBag.reset();
+            saveNegativeResultCache();
+            reportStatistics();
         }
 
         if ( sourceRoot != null )
@@ -204,6 +252,50 @@ public class AntRunMojo
         }
     }
     
+    private void saveNegativeResultCache() {
+        NegativeResultCache nrc = bag.getNegativeResultCache();
+        if(nrc==null)   return;
+        try {
+            nrc.save();
+        } catch (IOException e) {
+            // not worth failing the build for
+            getLog().warn("Failed to save the negative result cache",e);
+        }
+    }
+
+    /**
+     * Reports the statistics. Runs even if the tasks failed, so this must not throw
+     * and hide the original failure.
+     */
+    private void reportStatistics() {
+        Statistics stats = bag.statistics;
+        if(stats.isEmpty())
+            return; // none of our tasks were used
+        if(writeStatistics || traceFile!=null)
+            getLog().info(stats.getSummary());
+        else
+        if(getLog().isDebugEnabled())
+            getLog().debug(stats.getSummary());
+
+        if(traceFile!=null) {
+            try {
+                stats.writeTrace(traceFile);
+            } catch (IOException e) {
+                // not worth failing the build for
+                getLog().warn("Failed to write "+traceFile,e);
+            }
+        }
+
+        if(writeStatistics) {
+            File f = new File(project.getBuild().getDirectory(),"antrun-extended-statistics.json");
+            try {
+                stats.writeJson(f);
+            } catch (IOException e) {
+                getLog().warn("Failed to write "+f,e);
+            }
+        }
+    }
+
     /*
      * This method is invoked to initialize the MavenComponentBag and
      * set it in ArtifactResolverWrapperThreadLocal.  This thread local class
@@ -220,6 +312,18 @@ public class AntRunMojo
                 artifactMetadataSource,
                 mavenProjectBuilder);
         bag.setVerifyArtifact(verifyArtifact);
+        bag.setLeanGraphs(leanGraphs);
+        bag.setResolveVersionRanges(resolveVersionRanges);
+        if(negativeCacheLifetime>0) {
+            File f = new File(localRepository.getBasedir(),".cache/antrun-extended/negative-results.properties");
+            try {
+                bag.setNegativeResultCache(new NegativeResultCache(f,negativeCacheLifetime*60L*1000));
+            } catch (IOException e) {
+                getLog().warn("Failed to load "+f,e);
+            }
+        }
+        if(traceFile!=null)
+            bag.statistics.enableTrace();
     }
 
     protected void configureProject(Project antProject) {
@@ -260,6 +364,7 @@ public class AntRunMojo
         ResolveAllTask.class,
         AttachArtifactTask.class,
         GraphDefTask.class,
+        ForEachArtifactTask.class,
         IfTask.class
     };
 
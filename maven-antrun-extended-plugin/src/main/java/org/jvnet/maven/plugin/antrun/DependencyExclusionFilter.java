@@ -1,14 +1,8 @@
 package org.jvnet.maven.plugin.antrun;
 
-import org.apache.maven.project.MavenProject;
-import org.apache.maven.model.Dependency;
-import org.apache.maven.model.Exclusion;
-
-import java.util.List;
 import java.util.Set;
 import java.util.Stack;
 import java.util.HashSet;
-import java.util.Collections;
 
 /**
  * Filters out a graph by honoring dependency exclusion.
@@ -91,14 +85,7 @@ public class DependencyExclusionFilter extends GraphFilter {
              * Computes the exclusion set added by this node. They are strings of the form 'groupId:artifactId'.
              */
             private Set<String> computeExclusionSet(DependencyGraph.Node node) {
-                MavenProject p = node.getProject();
-                if(p==null) return Collections.emptySet();
-
-                Set<String> excSet = new HashSet<String>();
-                for( Dependency d : (List<Dependency>)p.getDependencies() )
-                    for( Exclusion exc : (List<Exclusion>)d.getExclusions() )
-                        excSet.add(exc.getGroupId()+':'+exc.getArtifactId());
-                return excSet;
+                return node.getExclusions();
             }
         }.run();
 
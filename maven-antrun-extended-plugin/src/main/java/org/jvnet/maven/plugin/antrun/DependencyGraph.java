@@ -1,22 +1,34 @@
 package org.jvnet.maven.plugin.antrun;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.metadata.ArtifactMetadataRetrievalException;
 import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
 import org.apache.maven.artifact.versioning.VersionRange;
 import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuildingException;
 import org.apache.commons.collections.ListUtils;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,6 +86,11 @@ public final class DependencyGraph {
      */
     private final boolean tolerateBrokenPOMs;
 
+    /**
+     * If true, don't go to remote repositories for POMs and artifacts.
+     */
+    private final boolean offline;
+
     /**
      * Forward edges.
      *
@@ -83,23 +100,176 @@ public final class DependencyGraph {
     private final Map<Node,List<Edge>> forwardEdges = new HashMap<Node, List<Edge>>();
     private final Map<Node,List<Edge>> backwardEdges = new HashMap<Node, List<Edge>>();
 
+    /**
+     * Graph that this graph is incrementally built from, or null. Only used during the construction.
+     */
+    private DependencyGraph previous;
+
+    /**
+     * All the versions requested for each node, in the order they were requested.
+     * Only recorded when {@linkplain MavenComponentBag#setResolveVersionRanges(boolean) version ranges
+     * are resolved}, and null otherwise.
+     */
+    private Map<Node,List<VersionRequest>> versionRequests;
+
+    /**
+     * Dependencies to leave out during the construction, or null.
+     */
+    private Pruning pruning;
+
+    /**
+     * Used during the construction with {@link #pruning}.
+     * See {@link #getExclusionsBelow(Node)} and {@link #addPathExclusions(Node, Set, Queue)}.
+     */
+    private Map<Node,Set<String>> pathExclusions;
+    private Set<Node> expanded;
+
+    /**
+     * Breadth-first search tree from the root, which gives the shortest trail to each node.
+     * Recorded while the graph is built, and computed on demand for other graphs, like sub-graphs.
+     * See {@link #getBfsTree()}.
+     */
+    private Map<Node,BfsEntry> bfsTree;
+
+    /**
+     * Nodes in the dependency order, grouped into layers. Computed on demand.
+     * See {@link #getLayers()}.
+     */
+    private List<List<Node>> layers;
+    private List<Node> topologicalOrder;
+
     /**
      * Creates a full dependency graph with the given artifact at the top.
      */
     public DependencyGraph(Artifact root, boolean tolerateBrokenPOMs) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
-        this.tolerateBrokenPOMs = tolerateBrokenPOMs;
-        Queue<Node> q = new LinkedList<Node>();
+        this(root,new Options().tolerateBrokenPOMs(tolerateBrokenPOMs));
+    }
+
+    /**
+     * Creates a dependency graph with the given artifact at the top.
+     */
+    public DependencyGraph(Artifact root, Options options) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
+        this.tolerateBrokenPOMs = options.tolerateBrokenPOMs;
+        this.offline = options.offline;
+        Queue<Node> q = startBuilding(options);
         this.root = buildNode(root,q);
-        visitBFS(q);
+        finishBuilding(q);
     }
 
     /**
      * Creates a full dependency graph with the given project at the top.
      */
     public DependencyGraph(MavenProject root, boolean tolerateBrokenPOMs) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
-        this.tolerateBrokenPOMs = tolerateBrokenPOMs;
-        Queue<Node> q = new LinkedList<Node>();
+        this(root,new Options().tolerateBrokenPOMs(tolerateBrokenPOMs));
+    }
+
+    /**
+     * Creates a dependency graph with the given project at the top.
+     * When {@linkplain Options#previous(DependencyGraph) updating a previous graph},
+     * the given project itself is always expanded again.
+     */
+    public DependencyGraph(MavenProject root, Options options) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
+        this.tolerateBrokenPOMs = options.tolerateBrokenPOMs;
+        this.offline = options.offline;
+        Queue<Node> q = startBuilding(options);
         this.root = buildNode(root,q);
+        finishBuilding(q);
+    }
+
+    /**
+     * How a {@link DependencyGraph} is built. By default, a full graph is built from scratch,
+     * going to remote repositories as needed, and a POM that fails to load fails the whole graph.
+     */
+    public static final class Options {
+        private boolean tolerateBrokenPOMs;
+        private boolean offline;
+        private DependencyGraph previous;
+        private Pruning pruning;
+
+        /**
+         * If true, ignore the {@link Node}s that have failed to load.
+         */
+        public Options tolerateBrokenPOMs(boolean tolerateBrokenPOMs) {
+            this.tolerateBrokenPOMs = tolerateBrokenPOMs;
+            return this;
+        }
+
+        /**
+         * If true, POMs and artifacts are only looked for in the local repository.
+         */
+        public Options offline(boolean offline) {
+            this.offline = offline;
+            return this;
+        }
+
+        /**
+         * Builds the graph by updating a graph computed earlier.
+         *
+         * <p>
+         * The graph is built in the same breadth-first fashion, so the result is the same as building
+         * it from scratch, but the dependencies of the modules whose POMs haven't changed since then
+         * are taken from the previous graph instead of parsing their POMs again.
+         * Only the modules whose POMs have changed, and the modules that newly become a part of the graph
+         * (say because a changed POM adds a dependency or a version conflict is now resolved differently),
+         * are loaded from the repository.
+         *
+         * <p>
+         * Changes are detected by looking at POMs, and the parent POMs they inherit from, in the local repository.
+         * So a SNAPSHOT deployed to a remote repository is only noticed once it's downloaded,
+         * for example by a build that doesn't use the previous graph. The module being built is always
+         * expanded again, since its pom.xml may have changed without being installed.
+         *
+         * @param previous
+         *      A full graph computed earlier, typically {@linkplain DependencyGraph#read(Reader) read back from a file}.
+         *      Can be null, in which case the graph is built from scratch.
+         */
+        public Options previous(DependencyGraph previous) {
+            this.previous = previous;
+            return this;
+        }
+
+        /**
+         * Builds the graph without expanding the dependencies that the given {@link Pruning} leaves out.
+         *
+         * <p>
+         * Unlike filtering a full graph afterward, the POMs of the modules that are only reachable through
+         * such dependencies are never loaded, and versions are picked among the remaining dependencies,
+         * which is what Maven does.
+         *
+         * @param pruning
+         *      Can be null, in which case the full graph is built.
+         */
+        public Options pruning(Pruning pruning) {
+            this.pruning = pruning;
+            return this;
+        }
+    }
+
+    /**
+     * Sets up the construction with the given options.
+     *
+     * @return
+     *      The queue of nodes to expand, to add the root to.
+     */
+    private Queue<Node> startBuilding(Options options) {
+        this.previous = options.previous;
+        this.pruning = options.pruning;
+        if(bag.isResolveVersionRanges())
+            versionRequests = new HashMap<Node,List<VersionRequest>>();
+        return new LinkedList<Node>();
+    }
+
+    /**
+     * Builds the rest of the graph once the root is added.
+     */
+    private void finishBuilding(Queue<Node> q) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
+        bfsTree = new HashMap<Node,BfsEntry>();
+        bfsTree.put(this.root,new BfsEntry(null,0));
+        if(pruning!=null) {
+            pathExclusions = new HashMap<Node,Set<String>>();
+            pathExclusions.put(this.root,Collections.<String>emptySet());
+            expanded = new HashSet<Node>();
+        }
         visitBFS(q);
     }
 
@@ -107,8 +277,89 @@ public final class DependencyGraph {
      * Completes the graph in a breadth-first fashion.
      */
     private void visitBFS(Queue<Node> q) throws ArtifactResolutionException, ArtifactNotFoundException, ProjectBuildingException {
-        while(!q.isEmpty())
-            q.poll().expand(this,q);
+        while(!q.isEmpty()) {
+            Node n = q.poll();
+            n.expand(this,q);
+            if(expanded!=null)
+                expanded.add(n);
+        }
+        // no longer needed
+        previous = null;
+        pathExclusions = null;
+        expanded = null;
+    }
+
+    /**
+     * Modules excluded on every path from the root to the given node seen so far, including
+     * the exclusions of the node itself. Its dependencies on them don't need to be expanded.
+     */
+    private Set<String> getExclusionsBelow(Node n) {
+        Set<String> above = pathExclusions.get(n);
+        if(n.exclusions.isEmpty())  return above;
+        if(above.isEmpty())         return n.exclusions;
+        Set<String> r = new HashSet<String>(above);
+        r.addAll(n.exclusions);
+        return r;
+    }
+
+    /**
+     * Records that the given node is reachable through a path that excludes the given modules.
+     * If that means fewer modules are excluded on all the paths to the node than we thought,
+     * and the node is already expanded, it's expanded again to add the dependencies that
+     * were left out.
+     */
+    private void addPathExclusions(Node n, Set<String> excluded, Queue<Node> q) {
+        Set<String> current = pathExclusions.get(n);
+        if(current==null) {
+            pathExclusions.put(n,excluded);
+            return;
+        }
+        if(excluded.containsAll(current))
+            return; // nothing changes
+        Set<String> r = new HashSet<String>(current);
+        r.retainAll(excluded);
+        pathExclusions.put(n,r);
+        if(expanded.remove(n))
+            q.add(n);
+    }
+
+    /**
+     * Dependencies to leave out while building a graph, so that they are never expanded.
+     *
+     * <p>
+     * Optional dependencies and excluded modules are always left out, as graph tasks
+     * never use them. Dependencies can be further limited to the given scopes, which
+     * is what &lt;scope> filter would do.
+     *
+     * @see Options#pruning(Pruning)
+     */
+    public static final class Pruning {
+        /**
+         * Scopes of the dependencies to expand, or null to expand all scopes.
+         */
+        private final Set<String> scopes;
+
+        public Pruning(Collection<String> scopes) {
+            this.scopes = scopes!=null ? new HashSet<String>(scopes) : null;
+        }
+
+        /**
+         * Decides if the given dependency needs to be expanded.
+         *
+         * @param excluded
+         *      Modules excluded on all the paths to the module that declares the dependency.
+         */
+        private boolean accept(DeclaredDependency d, Set<String> excluded) {
+            if(d.optional)
+                return false;
+            if(scopes!=null && !scopes.contains(d.scope!=null ? d.scope : "compile"))
+                return false;
+            return excluded.isEmpty() || !excluded.contains(d.key);
+        }
+
+        public String toString() {
+            return "Pruning[scopes="+scopes+"]";
+        }
     }
 
     /**
@@ -118,8 +369,9 @@ public final class DependencyGraph {
      * hence the 'private' access. Use {@link #createSubGraph(GraphVisitor)}
      * to construct a subset reliably.
      */
-    private DependencyGraph(Node root, Collection<Node> nodes, Collection<Edge> edges, boolean tolerateBrokenPOMs) {
+    private DependencyGraph(Node root, Collection<Node> nodes, Collection<Edge> edges, boolean tolerateBrokenPOMs, boolean offline) {
         this.tolerateBrokenPOMs = tolerateBrokenPOMs;
+        this.offline = offline;
         if(nodes.isEmpty())     root = null; // graph is empty
 
         this.root = root;
@@ -130,7 +382,7 @@ public final class DependencyGraph {
             if(!nodes.contains(root))
                 throw new IllegalArgumentException("root "+root+" is not a part of nodes:"+nodes);
             for (Node n : nodes)
-                this.nodes.put(n.getId(),n);
+                this.nodes.put(n.id,n);
             for (Edge e : edges) {
                 if(contains(e.src) && contains(e.dst)) {
                     e.addEdge(forwardEdges,e.src);
@@ -143,6 +395,7 @@ public final class DependencyGraph {
             if(reachable.size()!=this.nodes.size())
                 throw new IllegalArgumentException();
         }
+        Statistics.get().increment(Statistics.Counter.SUBGRAPHS_CREATED);
     }
 
     /**
@@ -173,15 +426,14 @@ public final class DependencyGraph {
      * Checks if the graph contains the given node.
      */
     public boolean contains(Node node) {
-        return nodes.containsKey(node.getId());
+        return nodes.containsKey(node.id);
     }
 
     /**
      * Gets the associated {@link Node}, or null if none exists.
      */
     public Node toNode(Artifact a) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
-        String id = a.getGroupId()+':'+a.getArtifactId()+':'+a.getClassifier();
-        return nodes.get(id);
+        return nodes.get(bag.nodeId(a.getGroupId(),a.getArtifactId(),a.getClassifier()));
     }
 
     /**
@@ -196,27 +448,347 @@ public final class DependencyGraph {
      * {@link Node}s to be expanded.
      */
     private Node buildNode(Artifact a, Queue<Node> q) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
-        String id = a.getGroupId()+':'+a.getArtifactId()+':'+a.getClassifier();
+        String id = bag.nodeId(a.getGroupId(),a.getArtifactId(),a.getClassifier());
 
         Node n = nodes.get(id);
         if(n==null) {
-            n = new Node(a,this,q);
-            nodes.put(id, n);
+            n = reuseNode(a,id,q);
+            if(n==null)
+                n = new Node(a,id,this,q);
+            nodes.put(n.id, n);
         }
         return n;
     }
 
+    /**
+     * If the {@link #previous} graph has the same module whose POM, and parent POMs, haven't changed since then,
+     * creates a node from it without parsing the POM.
+     *
+     * @return
+     *      null if the node needs to be built from the POM.
+     */
+    private Node reuseNode(Artifact a, String id, Queue<Node> q) {
+        if(previous==null || "system".equals(a.getScope()))
+            return null;
+        Node old = previous.nodes.get(id);
+        if(old==null || old.dependencies==null || old.pomFingerprint==null
+        || a.getVersion()==null || !a.getVersion().equals(old.version)
+        || a.getType()==null || !a.getType().equals(old.type))
+            return null;
+        // the module being built is always expanded again, since its pom.xml may have changed
+        // without the POM in the local repository changing
+        MavenProject own = bag.project;
+        if(own!=null && old.groupId.equals(own.getGroupId()) && old.artifactId.equals(own.getArtifactId())
+        && old.version.equals(own.getVersion()))
+            return null;
+        if(!bag.isPomUnchanged(old.pomFingerprint))
+            return null;
+
+        bag.statistics.increment(Statistics.Counter.POMS_UNCHANGED);
+        Node n = new Node(old,this);
+        q.add(n); // visit dependencies recorded in the previous graph later
+        return n;
+    }
+
     private Node buildNode(MavenProject p, Queue<Node> q) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
-        String id = p.getGroupId()+':'+p.getArtifactId()+":null";
+        String id = bag.nodeId(p.getGroupId(),p.getArtifactId(),null);
 
         Node n = nodes.get(id);
         if(n==null) {
-            n = new Node(p, q);
-            nodes.put(id, n);
+            n = new Node(p,id,this,q);
+            nodes.put(n.id, n);
         }
         return n;
     }
 
+    /**
+     * Records the edge through which the given node is first reached during the construction.
+     * The graph is built breadth-first, so that's the end of a shortest trail.
+     */
+    private void addBfsEdge(Edge e) {
+        if(!bfsTree.containsKey(e.dst))
+            bfsTree.put(e.dst,new BfsEntry(e,bfsTree.get(e.src).depth+1));
+    }
+
+    /**
+     * Gets the breadth-first search tree from the root, computing it if necessary.
+     */
+    private synchronized Map<Node,BfsEntry> getBfsTree() {
+        if(bfsTree==null) {
+            Map<Node,BfsEntry> tree = new HashMap<Node,BfsEntry>(nodes.size()*2);
+            if(root!=null) {
+                Queue<Node> q = new LinkedList<Node>();
+                tree.put(root,new BfsEntry(null,0));
+                q.add(root);
+                while(!q.isEmpty()) {
+                    Node n = q.poll();
+                    int depth = tree.get(n).depth+1;
+                    for (Edge e : n.getForwardEdges(this)) {
+                        if(!tree.containsKey(e.dst)) {
+                            tree.put(e.dst,new BfsEntry(e,depth));
+                            q.add(e.dst);
+                        }
+                    }
+                }
+            }
+            bfsTree = tree;
+        }
+        return bfsTree;
+    }
+
+    /**
+     * Gets the length of the shortest dependency trail from the root to the given node.
+     *
+     * @return
+     *      0 for the root, and -1 if the node is not in this graph.
+     */
+    public int getDepth(Node n) {
+        BfsEntry e = getBfsTree().get(n);
+        return e!=null ? e.depth : -1;
+    }
+
+    /**
+     * Returns all nodes in the dependency order, where every node comes after all the nodes
+     * that it depends on. For example, the root comes last.
+     *
+     * <p>
+     * The order is computed once and cached. It's the concatenation of {@link #getLayers()}.
+     *
+     * @return
+     *      never null. Must not be modified.
+     * @throws IllegalStateException
+     *      if the dependencies are cyclic, and hence there's no such order.
+     */
+    public List<Node> getTopologicalOrder() {
+        computeLayers();
+        return topologicalOrder;
+    }
+
+    /**
+     * Groups all nodes into layers in the dependency order.
+     *
+     * <p>
+     * The first layer consists of nodes that don't depend on anything, and each subsequent layer consists of
+     * nodes that only depend on nodes in earlier layers. Thus the nodes in the same layer don't depend on
+     * each other, and can be processed concurrently, once all the earlier layers are processed.
+     * Nodes in each layer are sorted by {@linkplain Node#getId() their IDs}.
+     *
+     * @return
+     *      never null. Must not be modified.
+     * @throws IllegalStateException
+     *      if the dependencies are cyclic, and hence there's no such layering.
+     */
+    public List<List<Node>> getLayers() {
+        computeLayers();
+        return layers;
+    }
+
+    private synchronized void computeLayers() {
+        if(layers!=null)    return;
+
+        // number of nodes that each node depends on, and that are not in the layers yet
+        Map<Node,Integer> pending = new HashMap<Node,Integer>(nodes.size()*2);
+        List<Node> current = new ArrayList<Node>();
+        for (Node n : nodes.values()) {
+            int c = n.getForwardEdges(this).size();
+            if(c==0)    current.add(n);
+            else        pending.put(n,c);
+        }
+
+        List<List<Node>> layers = new ArrayList<List<Node>>();
+        List<Node> order = new ArrayList<Node>(nodes.size());
+        while(!current.isEmpty()) {
+            Collections.sort(current,BY_ID);
+            layers.add(Collections.unmodifiableList(current));
+            order.addAll(current);
+
+            List<Node> next = new ArrayList<Node>();
+            for (Node n : current) {
+                for (Edge e : n.getBackwardEdges(this)) {
+                    Integer c = pending.get(e.src);
+                    if(c==null)     continue;   // self-dependency, which is caught below
+                    if(c==1) {
+                        pending.remove(e.src);
+                        next.add(e.src);
+                    } else
+                        pending.put(e.src,c-1);
+                }
+            }
+            current = next;
+        }
+
+        if(!pending.isEmpty())
+            throw new IllegalStateException("Cyclic dependencies: "+findCycle(pending.keySet()));
+
+        this.topologicalOrder = Collections.unmodifiableList(order);
+        this.layers = Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * Finds a cycle among the given nodes, each of which must depend on some other node in the set.
+     */
+    private String findCycle(Set<Node> nodes) {
+        List<Node> path = new ArrayList<Node>();
+        Node n = nodes.iterator().next();
+        while(!path.contains(n)) {
+            path.add(n);
+            for (Edge e : n.getForwardEdges(this)) {
+                if(nodes.contains(e.dst)) {
+                    n = e.dst;
+                    break;
+                }
+            }
+        }
+
+        StringBuilder buf = new StringBuilder();
+        for (Node p : path.subList(path.indexOf(n),path.size()))
+            buf.append(p).append(" -> ");
+        return buf.append(n).toString();
+    }
+
+    /**
+     * Orders nodes by {@link Node#getId()}.
+     */
+    private static final Comparator<Node> BY_ID = new Comparator<Node>() {
+        public int compare(Node o1, Node o2) {
+            return o1.id.compareTo(o2.id);
+        }
+    };
+
+    /**
+     * Node in the breadth-first search tree.
+     */
+    private static final class BfsEntry {
+        /**
+         * The edge through which the node is reached, or null for the root.
+         */
+        final Edge parent;
+        final int depth;
+
+        BfsEntry(Edge parent, int depth) {
+            this.parent = parent;
+            this.depth = depth;
+        }
+    }
+
+    private void addVersionRequest(Node n, VersionRequest r) {
+        List<VersionRequest> l = versionRequests.get(n);
+        if(l==null)
+            versionRequests.put(n,l=new ArrayList<VersionRequest>(1));
+        for (VersionRequest v : l)
+            if(v.requester==r.requester && v.declared.equals(r.declared))
+                return; // the requester is expanded again
+        l.add(r);
+    }
+
+    /**
+     * Gets all the versions requested for the given node by the dependencies in this graph,
+     * including the one that won.
+     *
+     * <p>
+     * This is only available on graphs built from POMs while
+     * {@linkplain MavenComponentBag#setResolveVersionRanges(boolean) version ranges are resolved}.
+     * It's always empty for others, including sub-graphs.
+     *
+     * @return
+     *      can be empty but never null.
+     */
+    public List<VersionRequest> getVersionRequests(Node n) {
+        List<VersionRequest> l = versionRequests!=null ? versionRequests.get(n) : null;
+        if(l==null) return Collections.emptyList();
+        return Collections.unmodifiableList(l);
+    }
+
+    /**
+     * Reports the version conflicts, which were resolved in favor of the nearest dependency.
+     *
+     * <p>
+     * See {@link #getVersionRequests(Node)} for when this information is available.
+     *
+     * @return
+     *      For each node that was also requested in a different version, the requests that lost.
+     *      Can be empty but never null.
+     */
+    public Map<Node,List<VersionRequest>> getVersionConflicts() {
+        Map<Node,List<VersionRequest>> r = new TreeMap<Node,List<VersionRequest>>(BY_ID);
+        if(versionRequests==null)   return r;
+        for (Map.Entry<Node,List<VersionRequest>> e : versionRequests.entrySet()) {
+            List<VersionRequest> losers = null;
+            for (VersionRequest req : e.getValue()) {
+                if(req.isWinner(e.getKey()))  continue;
+                if(losers==null)
+                    r.put(e.getKey(),losers=new ArrayList<VersionRequest>());
+                losers.add(req);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * A version of a module requested by a dependency.
+     *
+     * @see DependencyGraph#getVersionRequests(Node)
+     */
+    public static final class VersionRequest {
+        /**
+         * The module that declared the dependency.
+         */
+        public final Node requester;
+        /**
+         * The version as declared, which can be a range like "[1.0,2.0)".
+         */
+        public final String declared;
+        /**
+         * The version that the declaration alone would have picked.
+         * For a range, this is the newest available version in the range.
+         */
+        public final String wanted;
+
+        private VersionRequest(Node requester, String declared, String wanted) {
+            this.requester = requester;
+            this.declared = declared;
+            this.wanted = wanted;
+        }
+
+        /**
+         * Returns true if this request got the version it wanted, when the given node was picked.
+         */
+        public boolean isWinner(Node n) {
+            return wanted.equals(n.version);
+        }
+
+        /**
+         * Returns true if the given node is acceptable to this request. That is, either
+         * the declared version is just a preference, or the node is within the declared range.
+         */
+        public boolean isSatisfiedBy(Node n) {
+            VersionRange range = parseRange(declared);
+            if(range==null || n.version==null)
+                return true;
+            return range.containsVersion(new DefaultArtifactVersion(n.version));
+        }
+
+        public String toString() {
+            return requester+" wants "+declared;
+        }
+    }
+
+    /**
+     * Parses a version specification.
+     *
+     * @return
+     *      null if the specification is not a range.
+     */
+    private static VersionRange parseRange(String spec) {
+        if(spec==null)  return null;
+        try {
+            VersionRange range = VersionRange.createFromVersionSpec(spec);
+            return range.getRecommendedVersion()==null ? range : null;
+        } catch (InvalidVersionSpecificationException e) {
+            return null;    // let it go through, so that it fails in the usual way
+        }
+    }
+
     /**
      * Accepts the visitor and invoke its visitor methods to create a sub-graph.
      *
@@ -279,7 +851,7 @@ public final class DependencyGraph {
             }
         }
 
-        return new DependencyGraph(node,nodes,edges, tolerateBrokenPOMs);
+        return new DependencyGraph(node,nodes,edges, tolerateBrokenPOMs, offline);
     }
 
     /**
@@ -294,9 +866,315 @@ public final class DependencyGraph {
                     edges.add(e);
             }
         }
-        return new DependencyGraph(root,nodes,edges, tolerateBrokenPOMs);
+        return new DependencyGraph(root,nodes,edges, tolerateBrokenPOMs, offline);
+    }
+
+    /**
+     * Resolves artifact files of all the given nodes in one go.
+     *
+     * <p>
+     * This is equivalent to calling {@link Node#getArtifactFile()} on each node, except that
+     * nodes of the same artifact are only resolved once, the repository list is computed once
+     * per distinct set of repositories declared in POMs, and resolutions can run in parallel.
+     * Nodes that are already resolved are skipped. Once this method returns,
+     * {@link Node#getArtifactFile()} of successfully resolved nodes returns immediately.
+     *
+     * @param nodes
+     *      Nodes to resolve. They don't have to belong to this graph.
+     * @param parallelism
+     *      Maximum number of artifacts resolved concurrently. 1 or less to resolve
+     *      everything in the calling thread.
+     * @return
+     *      never null. Failures are reported there, instead of by an exception.
+     */
+    public Resolution resolveAll(Collection<Node> nodes, int parallelism) {
+        return resolveAll(nodes,parallelism,null);
+    }
+
+    /**
+     * Works like {@link #resolveAll(Collection, int)}, and reports the progress.
+     *
+     * @param progress
+     *      Can be null. Each distinct artifact is one step.
+     */
+    /*package*/ Resolution resolveAll(Collection<Node> nodes, int parallelism, final Progress progress) {
+        final Resolution result = new Resolution();
+
+        // group nodes by the artifact, so that each one is resolved only once
+        Map<String,List<Node>> byArtifact = new LinkedHashMap<String,List<Node>>();
+        for (Node n : nodes) {
+            if(n.artifactFile!=null)    continue;   // already resolved
+            String key = n.groupId+':'+n.artifactId+':'+n.version+':'+n.type+':'+n.classifier;
+            List<Node> l = byArtifact.get(key);
+            if(l==null)
+                byArtifact.put(key,l=new ArrayList<Node>());
+            l.add(n);
+        }
+
+        // then by the repositories declared in POMs, so that we compute the list of repositories
+        // to resolve from just once per group. Most POMs don't declare repositories at all.
+        Map<List,List> repositories = new HashMap<List,List>();
+        final List<Runnable> jobs = new ArrayList<Runnable>(byArtifact.size());
+        for (final List<Node> group : byArtifact.values()) {
+            final Node n = group.get(0);
+            if(n.remoteRepositories==null && !n.offline) {
+                List declared = n.declaredRepositories;
+                List repos = repositories.get(declared);
+                if(repos==null)
+                    repositories.put(declared,repos=getRemoteRepositories(declared,bag));
+                n.remoteRepositories = repos;
+            }
+
+            jobs.add(new Runnable() {
+                public void run() {
+                    try {
+                        File f = n.artifactResolver.resolve();
+                        for (Node dup : group)
+                            dup.artifactFile = f;
+                    } catch (Exception e) {
+                        for (Node dup : group)
+                            result.addFailure(dup,e);
+                    }
+                    if(progress!=null)
+                        progress.step();
+                }
+            });
+        }
+
+        if(progress!=null)
+            progress.begin(jobs.size());
+        // if interrupted, leave the rest unresolved. they'll be resolved on demand, if ever
+        Workers.run(jobs,parallelism);
+        if(progress!=null)
+            progress.end();
+        return result;
+    }
+
+    /**
+     * Result of {@link DependencyGraph#resolveAll(Collection, int)}.
+     */
+    public static final class Resolution {
+        private final Map<Node,Exception> failures = new LinkedHashMap<Node,Exception>();
+
+        private synchronized void addFailure(Node n, Exception e) {
+            failures.put(n,e);
+        }
+
+        /**
+         * Returns true if all the nodes were resolved successfully.
+         */
+        public synchronized boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+
+        /**
+         * Nodes that failed to resolve, and why, in the order they were given.
+         * Typically {@link AbstractArtifactResolutionException}.
+         */
+        public synchronized Map<Node,Exception> getFailures() {
+            return Collections.unmodifiableMap(new LinkedHashMap<Node,Exception>(failures));
+        }
+    }
+
+    /**
+     * Computes the remote repositories to resolve an artifact from, which consists of the repositories
+     * declared in its POM and the ones from {@link MavenComponentBag}.
+     */
+    private static List getRemoteRepositories(List declared, MavenComponentBag bag) {
+        if(declared==null)
+            return bag.remoteRepositories;
+        //use repositories from pom and also MavenComponentBag
+        return ListUtils.sum(declared, bag.remoteRepositories);
+    }
+
+    /**
+     * Writes this graph in a line-oriented text format, which can be read back by {@link #read(Reader)}.
+     *
+     * <p>
+     * The format is tab-separated. The first line is a header, followed by one "node" line for each node,
+     * root first, then one "edge" line for each edge, which refers to nodes by their position.
+     * Nulls are written as "-". Backslashes, tabs, line breaks, and values that are just "-"
+     * are escaped with a backslash, as in "\\t".
+     *
+     * <pre>
+     * #antrun-extended-graph 1
+     * node  groupId  artifactId  version  type  classifier  packaging  exclusions  file  pomFingerprint
+     * dep   node  groupId  artifactId  version  type  classifier  scope  optional
+     * edge  src  dst  scope  optional
+     * </pre>
+     *
+     * <p>
+     * Resolved artifact files are recorded, so that the graph read back doesn't need to resolve them again.
+     * "dep" lines record the dependencies as declared in POMs, which
+     * {@linkplain Options#previous(DependencyGraph) incremental builds} need.
+     */
+    public void write(Writer w) throws IOException {
+        w.write(FORMAT_HEADER+"\n");
+        if(isEmpty())   return;
+
+        List<Node> order = new ArrayList<Node>(nodes.size());
+        order.add(root);
+        for (Node n : nodes.values())
+            if(n!=root)
+                order.add(n);
+
+        Map<Node,Integer> index = new HashMap<Node,Integer>(order.size()*2);
+        StringBuilder buf = new StringBuilder();
+        for (Node n : order) {
+            index.put(n,index.size());
+            buf.setLength(0);
+            buf.append("node");
+            appendField(buf,n.groupId);
+            appendField(buf,n.artifactId);
+            appendField(buf,n.version);
+            appendField(buf,n.type);
+            appendField(buf,n.classifier);
+            appendField(buf,n.packaging);
+            StringBuilder exc = new StringBuilder();
+            for (String e : n.exclusions) {
+                if(exc.length()>0)  exc.append(',');
+                exc.append(e);
+            }
+            appendField(buf,exc.length()>0 ? exc.toString() : null);
+            appendField(buf,n.artifactFile!=null ? n.artifactFile.getPath() : null);
+            appendField(buf,n.pomFingerprint);
+            w.write(buf.append('\n').toString());
+        }
+        for (Node n : order) {
+            if(n.dependencies==null)    continue;
+            for (DeclaredDependency d : n.dependencies) {
+                buf.setLength(0);
+                buf.append("dep\t").append(index.get(n));
+                appendField(buf,d.groupId);
+                appendField(buf,d.artifactId);
+                appendField(buf,d.version);
+                appendField(buf,d.type);
+                appendField(buf,d.classifier);
+                appendField(buf,d.scope);
+                buf.append('\t').append(d.optional);
+                w.write(buf.append('\n').toString());
+            }
+        }
+        for (Node n : order) {
+            for (Edge e : n.getForwardEdges(this)) {
+                buf.setLength(0);
+                buf.append("edge\t").append(index.get(e.src)).append('\t').append(index.get(e.dst));
+                appendField(buf,e.scope);
+                buf.append('\t').append(e.optional);
+                w.write(buf.append('\n').toString());
+            }
+        }
+    }
+
+    private static void appendField(StringBuilder buf, String value) {
+        buf.append('\t');
+        if(value==null) {
+            buf.append('-');
+            return;
+        }
+        if(value.equals("-")) {
+            buf.append("\\-");
+            return;
+        }
+        for( int i=0; i<value.length(); i++ ) {
+            char ch = value.charAt(i);
+            switch(ch) {
+            case '\\':   buf.append("\\\\"); break;
+            case '\t':   buf.append("\\t"); break;
+            case '\n':   buf.append("\\n"); break;
+            case '\r':   buf.append("\\r"); break;
+            default:     buf.append(ch);
+            }
+        }
+    }
+
+    /**
+     * Reverses {@link #appendField(StringBuilder, String)}.
+     */
+    private static String parseField(String value) {
+        if(value.equals("-"))
+            return null;
+        if(value.indexOf('\\')<0)
+            return value;
+        StringBuilder buf = new StringBuilder(value.length());
+        for( int i=0; i<value.length(); i++ ) {
+            char ch = value.charAt(i);
+            if(ch=='\\' && i+1<value.length()) {
+                ch = value.charAt(++i);
+                switch(ch) {
+                case 't':   ch = '\t'; break;
+                case 'n':   ch = '\n'; break;
+                case 'r':   ch = '\r'; break;
+                // others, like '\\' and '-', stand for themselves
+                }
+            }
+            buf.append(ch);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Reads back a graph written by {@link #write(Writer)}.
+     *
+     * <p>
+     * POMs are not parsed when reading a graph. {@link Node#getProject()} parses them on demand.
+     * Repositories declared in POMs are not recorded in the file, so artifacts that are not
+     * resolved yet are resolved from the repositories of the current project.
+     */
+    public static DependencyGraph read(Reader r) throws IOException {
+        return read(r,false);
+    }
+
+    /**
+     * Reads back a graph written by {@link #write(Writer)}.
+     *
+     * @param offline
+     *      If true, POMs and artifacts that the graph read back still needs
+     *      are only looked up in the local repository.
+     */
+    public static DependencyGraph read(Reader r, boolean offline) throws IOException {
+        MavenComponentBag bag = MavenComponentBag.get();
+        BufferedReader in = new BufferedReader(r);
+        if(!FORMAT_HEADER.equals(in.readLine()))
+            throw new IOException("Not a dependency graph file");
+
+        List<Node> nodes = new ArrayList<Node>();
+        List<Edge> edges = new ArrayList<Edge>();
+        String line;
+        while((line=in.readLine())!=null) {
+            if(line.length()==0)    continue;
+            String[] f = line.split("\t",-1);  // keep trailing empty values
+            for( int i=0; i<f.length; i++ )
+                f[i] = parseField(f[i]);
+            try {
+                if("node".equals(f[0]) && f.length==10) {
+                    nodes.add(new Node(f,bag,offline));
+                } else
+                if("dep".equals(f[0]) && f.length==9) {
+                    List<DeclaredDependency> deps = nodes.get(Integer.parseInt(f[1])).dependencies;
+                    if(deps==null)
+                        throw new IOException("Unexpected line: "+line);
+                    deps.add(new DeclaredDependency(bag,f[2],f[3],f[4],f[5],f[6],f[7],Boolean.valueOf(f[8])));
+                } else
+                if("edge".equals(f[0]) && f.length==5) {
+                    edges.add(new Edge(bag,nodes.get(Integer.parseInt(f[1])),nodes.get(Integer.parseInt(f[2])),
+                        f[3],Boolean.valueOf(f[4])));
+                } else
+                    throw new IOException("Unexpected line: "+line);
+            } catch (NumberFormatException e) {
+                throw (IOException)new IOException("Unexpected line: "+line).initCause(e);
+            } catch (IndexOutOfBoundsException e) {
+                throw (IOException)new IOException("Unexpected line: "+line).initCause(e);
+            }
+        }
+
+        if(nodes.isEmpty())
+            return new DependencyGraph(null,nodes,edges,false,offline);
+        return new DependencyGraph(nodes.get(0),nodes,edges,false,offline);
     }
 
+    private static final String FORMAT_HEADER = "#antrun-extended-graph 1";
+
     public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append("DependencyGraph[root=").append(root).append(",\n");
@@ -324,6 +1202,30 @@ public final class DependencyGraph {
         }
     };
 
+    /**
+     * A dependency as declared in a POM, before the version conflict resolution.
+     */
+    private static final class DeclaredDependency {
+        final String groupId,artifactId,version,type,classifier,scope;
+        final boolean optional;
+        /**
+         * "groupId:artifactId", as in exclusions.
+         * Precomputed, as {@link Pruning} checks it for every dependency on every path.
+         */
+        final String key;
+
+        DeclaredDependency(MavenComponentBag bag, String groupId, String artifactId, String version, String type, String classifier, String scope, boolean optional) {
+            this.groupId = bag.intern(groupId);
+            this.artifactId = bag.intern(artifactId);
+            this.key = bag.intern(groupId+':'+artifactId);
+            this.version = bag.intern(version);
+            this.type = bag.intern(type);
+            this.classifier = bag.intern(classifier);
+            this.scope = bag.intern(scope);
+            this.optional = optional;
+        }
+    }
+
     /**
      * Node, which represents an artifact.
      *
@@ -335,39 +1237,140 @@ public final class DependencyGraph {
     public static final class Node {
         /**
          * Basic properties of a module.
-         * If {@link #pom} is non-null, this information is redundant, but it needs to be
-         * kept separately for those rare cases where pom==null.
+         * If {@link #getProject()} is non-null, this information is redundant, but it needs to be
+         * kept separately for those rare cases where pom==null, and in the
+         * {@linkplain MavenComponentBag#setLeanGraphs(boolean) lean mode}.
          */
         public final String groupId,artifactId,version,type,classifier;
 
-        private final MavenProject pom;
-        private /*final*/ File artifactFile;
+        /**
+         * "groupId:artifactId:classifier", which identifies a node within a graph.
+         * Precomputed and {@linkplain MavenComponentBag#intern(String) interned}, as it's used
+         * in every graph lookup.
+         */
+        private final String id;
+
+        /**
+         * Cached {@link #hashCode()}.
+         */
+        private final int hash;
+
+        /**
+         * Parsed POM. In the lean mode, this is dropped once the dependencies are loaded,
+         * and {@link #getProject()} reloads it on demand.
+         */
+        private MavenProject pom;
+
+        /**
+         * True if this node has a POM, even if {@link #pom} is dropped.
+         */
+        private final boolean hasPom;
+
+        /**
+         * If true, {@link #pom} can be dropped and reloaded from the repository later.
+         */
+        private final boolean reloadable;
+
+        private final MavenComponentBag bag;
+
+        /**
+         * Packaging of the module, or null if there's no POM.
+         */
+        private final String packaging;
+
+        /**
+         * Remote repositories declared in the POM, or null if none.
+         */
+        private final List declaredRepositories;
+
+        /**
+         * Modules excluded by the dependencies of this module, in the form of "groupId:artifactId".
+         * Computed when the dependencies are loaded.
+         */
+        private Set<String> exclusions = Collections.emptySet();
+
+        /**
+         * Dependencies declared in the POM. Computed when the dependencies are loaded,
+         * and null until then, or if there's no POM.
+         */
+        private List<DeclaredDependency> dependencies;
+
+        /**
+         * {@linkplain MavenComponentBag#getPomFingerprint(MavenProject) Fingerprint} of the POM
+         * this node was built from and its parents, or null if unknown.
+         */
+        private final String pomFingerprint;
+
+        private volatile File artifactFile;
         private Resolver artifactResolver = NULL;
 
+        /**
+         * True if this node was created by an offline graph.
+         */
+        private final boolean offline;
+
+        /**
+         * Remote repositories to resolve {@link #artifact} from.
+         * Computed when first needed, as most nodes never get resolved.
+         */
+        private volatile List remoteRepositories;
+
         /**
          * Represents the artifact that we want to fetch.
          */
         private final Artifact artifact;
 
-        private Node(Artifact artifact, DependencyGraph g, Queue<Node> q) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
-            groupId = artifact.getGroupId();
-            artifactId = artifact.getArtifactId();
-            version = artifact.getVersion();
-            type = artifact.getType();
-            classifier = artifact.getClassifier();
+        private Node(Artifact artifact, String id, DependencyGraph g, Queue<Node> q) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
+            groupId = g.bag.intern(artifact.getGroupId());
+            artifactId = g.bag.intern(artifact.getArtifactId());
+            version = g.bag.intern(artifact.getVersion());
+            type = g.bag.intern(artifact.getType());
+            classifier = g.bag.intern(artifact.getClassifier());
+            this.id = id;
+            this.hash = computeHashCode();
             this.artifact = artifact;
+            this.offline = g.offline;
+
+            this.bag = g.bag;
+            this.reloadable = true;
 
             if("system".equals(artifact.getScope())) {
                 // system scoped artifacts don't have POM, so the attempt to load it will fail.
                 pom = null;
             } else {
-                pom = g.bag.mavenProjectBuilder.buildFromRepository(
-                        // this create another Artifact instance whose type is 'pom'
-                        g.bag.factory.createProjectArtifact(artifact.getGroupId(),artifact.getArtifactId(), artifact.getVersion()),
-                        g.bag.project.getRemoteArtifactRepositories(),
-                        g.bag.localRepository);
+                pom = g.bag.buildProject(groupId,artifactId,version,offline);
                 q.add(this); // visit dependencies from this POM later
             }
+            hasPom = pom!=null;
+            packaging = pom!=null ? g.bag.intern(pom.getPackaging()) : null;
+            declaredRepositories = pom!=null ? pom.getRemoteArtifactRepositories() : null;
+            pomFingerprint = pom!=null ? g.bag.getPomFingerprint(pom) : null;
+        }
+
+        /**
+         * Creates a node for a new graph from the same module in the previous graph,
+         * whose POM hasn't changed since. See {@link DependencyGraph#reuseNode(Artifact, String, Queue)}.
+         */
+        private Node(Node old, DependencyGraph g) {
+            groupId = old.groupId;
+            artifactId = old.artifactId;
+            version = old.version;
+            type = old.type;
+            classifier = old.classifier;
+            id = old.id;
+            hash = old.hash;
+            artifact = old.artifact;
+            artifactFile = old.artifactFile;
+            pom = old.pom;
+            hasPom = old.hasPom;
+            reloadable = old.reloadable;
+            bag = g.bag;
+            packaging = old.packaging;
+            declaredRepositories = old.declaredRepositories;
+            exclusions = old.exclusions;
+            dependencies = old.dependencies;
+            pomFingerprint = old.pomFingerprint;
+            offline = g.offline;
         }
 
         private void checkArtifact(final Artifact artifact, final MavenComponentBag bag) {
@@ -379,18 +1382,7 @@ public final class DependencyGraph {
                         artifactFile =artifact.getFile();
                         return artifactFile;
                     }
-                    if(pom!=null) {
-                        if (pom.getRemoteArtifactRepositories()==null) 
-                            bag.resolveArtifact(artifact);
-                        else {
-                            //use repositories from pom and also MavenComponentBag
-                            bag.resolveArtifact(artifact, 
-                                                ListUtils.sum(pom.getRemoteArtifactRepositories(),
-	                                                      bag.remoteRepositories));
-                        }
-		    }
-                    else
-                        bag.resolveArtifact(artifact);
+                    bag.resolveArtifact(artifact,getRemoteRepositories(bag));
                     artifactFile = artifact.getFile();
                     if(artifactFile==null)
                         throw new IllegalStateException("Artifact is not resolved yet: "+artifact);
@@ -399,35 +1391,114 @@ public final class DependencyGraph {
             };
         }
 
-        private Node(MavenProject pom, Queue<Node> q) {
+        /**
+         * Computes {@link #remoteRepositories}.
+         */
+        private List getRemoteRepositories(MavenComponentBag bag) {
+            if(remoteRepositories==null)
+                remoteRepositories = offline ? Collections.EMPTY_LIST : DependencyGraph.getRemoteRepositories(declaredRepositories,bag);
+            return remoteRepositories;
+        }
+
+        /**
+         * Restores a node from a "node" line written by {@link DependencyGraph#write(Writer)}.
+         */
+        private Node(String[] f, MavenComponentBag bag, boolean offline) {
+            this.bag = bag;
+            this.offline = offline;
+            groupId = bag.intern(f[1]);
+            artifactId = bag.intern(f[2]);
+            version = bag.intern(f[3]);
+            type = bag.intern(f[4]);
+            classifier = bag.intern(f[5]);
+            packaging = bag.intern(f[6]);
+            this.id = bag.nodeId(groupId,artifactId,classifier);
+            this.hash = computeHashCode();
+            hasPom = packaging!=null;
+            declaredRepositories = null;
+            pomFingerprint = f[9];
+            if(hasPom)
+                dependencies = new ArrayList<DeclaredDependency>();
+
+            if(f[7]!=null) {
+                exclusions = new HashSet<String>();
+                for (String e : f[7].split(","))
+                    exclusions.add(bag.intern(e));
+            }
+
+            Artifact own = bag.project.getArtifact();
+            if(own!=null && own.getGroupId().equals(groupId) && own.getArtifactId().equals(artifactId) && classifier==null) {
+                // the module being built
+                artifact = own;
+                pom = bag.project;
+                reloadable = false;
+            } else {
+                artifact = bag.factory.createArtifactWithClassifier(groupId,artifactId,version,type,classifier);
+                pom = null; // loaded on demand
+                reloadable = true;
+            }
+
+            if(f[8]!=null && new File(f[8]).exists())
+                artifactFile = new File(f[8]);
+            if(hasPom)  // those without POMs, like system-scoped ones, were never resolvable
+                checkArtifact(artifact,bag);
+        }
+
+        private Node(MavenProject pom, String id, DependencyGraph g, Queue<Node> q) {
             this.pom = pom;
-            groupId = pom.getGroupId();
-            artifactId = pom.getArtifactId();
-            version = pom.getVersion();
-            type = pom.getPackaging(); // are these the same thing?
+            this.hasPom = true;
+            // this is the module being built, which may not be in the repository yet
+            this.reloadable = false;
+            this.bag = g.bag;
+            this.packaging = g.bag.intern(pom.getPackaging());
+            this.declaredRepositories = pom.getRemoteArtifactRepositories();
+            this.offline = g.offline;
+            groupId = g.bag.intern(pom.getGroupId());
+            artifactId = g.bag.intern(pom.getArtifactId());
+            version = g.bag.intern(pom.getVersion());
+            type = g.bag.intern(pom.getPackaging()); // are these the same thing?
             classifier = null;
+            this.id = id;
+            this.hash = computeHashCode();
             artifact = pom.getArtifact();
+            pomFingerprint = null; // the module being built is always expanded again
             q.add(this); // visit dependencies from this POM later
         }
 
         private void expand(DependencyGraph g, Queue<Node> q) throws ArtifactResolutionException, ArtifactNotFoundException, ProjectBuildingException {
             checkArtifact(artifact,g.bag);
             loadDependencies(g,q);
+            if(reloadable && g.bag.isLeanGraphs())
+                pom = null;    // we'll reload it if anyone asks
         }
 
         private void loadDependencies(DependencyGraph g, Queue<Node> q) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException {
-            for( Dependency d : (List<Dependency>)pom.getDependencies() ) {
-                // the last boolean parameter is redundant, but the version that doesn't take this
-                // has a bug. See MNG-2524
-                Artifact a = g.bag.factory.createDependencyArtifact(
-                        d.getGroupId(), d.getArtifactId(), VersionRange.createFromVersion(d.getVersion()),
-                        d.getType(), d.getClassifier(), d.getScope(), false);
+            if(dependencies==null)
+                parseDependencies(g.bag);
 
-                // beware of Maven bug! make sure artifact got the value inherited from dependency
-                assert a.getScope().equals(d.getScope());
+            Set<String> excluded = g.pruning!=null ? g.getExclusionsBelow(this) : null;
 
+            for( DeclaredDependency d : dependencies ) {
+                if(excluded!=null && !g.pruning.accept(d,excluded))
+                    continue;   // never used, so don't even look at it
                 try {
-                    new Edge(g,this,g.buildNode(a,q),d.getScope(),d.isOptional());
+                    String version = g.versionRequests!=null ? resolveVersion(g,d) : d.version;
+
+                    // the last boolean parameter is redundant, but the version that doesn't take this
+                    // has a bug. See MNG-2524
+                    Artifact a = g.bag.factory.createDependencyArtifact(
+                            d.groupId, d.artifactId, VersionRange.createFromVersion(version),
+                            d.type, d.classifier, d.scope, false);
+
+                    // beware of Maven bug! make sure artifact got the value inherited from dependency
+                    assert a.getScope().equals(d.scope);
+
+                    Node dst = g.buildNode(a,q);
+                    g.addBfsEdge(new Edge(g,this,dst,d.scope,d.optional));
+                    if(excluded!=null)
+                        g.addPathExclusions(dst,excluded,q);
+                    if(g.versionRequests!=null && version!=null)
+                        g.addVersionRequest(dst,new VersionRequest(this,d.version,version));
                 } catch (ProjectBuildingException e) {
                     handleNodeResolutionException(g,e);
                 } catch (ArtifactResolutionException e) {
@@ -438,6 +1509,45 @@ public final class DependencyGraph {
             }
         }
 
+        /**
+         * Picks the version of the given dependency if it's a range, which is the newest version
+         * available in the range.
+         */
+        private String resolveVersion(DependencyGraph g, DeclaredDependency d) throws ArtifactResolutionException {
+            VersionRange range = parseRange(d.version);
+            if(range==null)     return d.version;
+
+            Artifact a = g.bag.factory.createDependencyArtifact(
+                    d.groupId, d.artifactId, range, d.type, d.classifier, d.scope, false);
+            ArtifactVersion v;
+            try {
+                v = range.matchVersion(g.bag.getAvailableVersions(a,getRemoteRepositories(g.bag)));
+            } catch (ArtifactMetadataRetrievalException e) {
+                throw new ArtifactResolutionException("Failed to list the versions of "+d.groupId+':'+d.artifactId,a,e);
+            }
+            if(v==null)
+                throw new ArtifactResolutionException("No version of "+d.groupId+':'+d.artifactId+" is available in "+d.version,a);
+            return v.toString();
+        }
+
+        /**
+         * Computes {@link #dependencies} and {@link #exclusions} from the POM.
+         */
+        private void parseDependencies(MavenComponentBag bag) {
+            List<Dependency> deps = (List<Dependency>)pom.getDependencies();
+            List<DeclaredDependency> r = new ArrayList<DeclaredDependency>(deps.size());
+            for( Dependency d : deps ) {
+                for( Exclusion exc : (List<Exclusion>)d.getExclusions() ) {
+                    if(exclusions.isEmpty())
+                        exclusions = new HashSet<String>();
+                    exclusions.add(bag.intern(exc.getGroupId()+':'+exc.getArtifactId()));
+                }
+                r.add(new DeclaredDependency(bag,d.getGroupId(),d.getArtifactId(),d.getVersion(),
+                    d.getType(),d.getClassifier(),d.getScope(),d.isOptional()));
+            }
+            dependencies = r;
+        }
+
         private void handleNodeResolutionException(DependencyGraph g, Exception e) throws ProjectBuildingException {
             if (g.tolerateBrokenPOMs)
                 System.err.println("Failed to parse dependencies of " + getId() + ". trail=" + getTrail(g));
@@ -448,12 +1558,50 @@ public final class DependencyGraph {
         /**
          * Gets the parsed POM for this artifact.
          *
+         * <p>
+         * In the {@linkplain MavenComponentBag#setLeanGraphs(boolean) lean mode}, this may
+         * require the POM to be parsed again, so graph operations should prefer the information
+         * available directly on {@link Node}.
+         *
          * @return null
          *      if POM is not available for this module.
          *      That can happen for example for system-scoped artifacts.
          */
         public MavenProject getProject() {
-            return pom;
+            MavenProject p = pom;
+            if(p!=null || !hasPom)
+                return p;
+            try {
+                return bag.buildProject(groupId,artifactId,version,offline);
+            } catch (ProjectBuildingException e) {
+                // it was built fine before, so this is unexpected
+                throw new IllegalStateException("Failed to reload the POM of "+this,e);
+            }
+        }
+
+        /**
+         * Gets the packaging of this module, like "jar" or "pom".
+         *
+         * @return null
+         *      if POM is not available for this module.
+         */
+        public String getPackaging() {
+            return packaging;
+        }
+
+        /**
+         * Gets the modules that the dependencies of this module exclude,
+         * in the form of "groupId:artifactId".
+         *
+         * @return
+         *      can be empty but never null. Must not be modified.
+         */
+        public Set<String> getExclusions() {
+            return exclusions;
+        }
+
+        /*package*/ List getDeclaredRepositories() {
+            return declaredRepositories;
         }
 
         /**
@@ -466,6 +1614,7 @@ public final class DependencyGraph {
          *      For all the other modules, this is never null.
          * @throws AbstractArtifactResolutionException
          *      Failed to resolve artifacat.
+         * @see DependencyGraph#resolveAll(Collection, int)
          */
         public File getArtifactFile() throws AbstractArtifactResolutionException {
             if(artifactFile==null)
@@ -530,7 +1679,7 @@ public final class DependencyGraph {
         }
 
         public String getId() {
-            return groupId+':'+artifactId+':'+classifier;
+            return id;
         }
 
         public boolean equals(Object o) {
@@ -548,6 +1697,10 @@ public final class DependencyGraph {
         }
 
         public int hashCode() {
+            return hash;
+        }
+
+        private int computeHashCode() {
             int result;
             result = groupId.hashCode();
             result = 31 * result + artifactId.hashCode();
@@ -557,23 +1710,21 @@ public final class DependencyGraph {
         }
 
         /**
-         * Builds the dependency trail from this node to the root node, in that order.
+         * Builds the shortest dependency trail from the root node to this node, in that order.
          *
          * This is useful as diagnostic information.
          */
         public List<Edge> getTrail(DependencyGraph graph) {
-            List<Edge> trail = new ArrayList<Edge>();
-            Node n = this;
-            while(n!=graph.getRoot()) {
-                List<Edge> list = n.getBackwardEdges(graph);
-                if(list.isEmpty())
-                    throw new AssertionError("Lost trail at "+trail+" from "+this+" with "+graph);
-                Edge e = list.get(0);
-                trail.add(e);
-                n = e.src;
+            Map<Node,BfsEntry> tree = graph.getBfsTree();
+            BfsEntry e = tree.get(this);
+            if(e==null)
+                throw new AssertionError("Lost trail from "+this+" with "+graph);
+            Edge[] trail = new Edge[e.depth];
+            while(e.parent!=null) {
+                trail[e.depth-1] = e.parent;
+                e = tree.get(e.parent.src);
             }
-            Collections.reverse(trail);
-            return trail;
+            return Arrays.asList(trail);
         }
     }
 
@@ -602,12 +1753,22 @@ public final class DependencyGraph {
             this.src = src;
             this.dst = dst;
             if(scope==null) scope="compile";
-            this.scope = scope;
+            this.scope = g.bag.intern(scope);
             this.optional = optional;
             addEdge(g.forwardEdges,src);
             addEdge(g.backwardEdges,dst);
         }
 
+        /**
+         * Creates an edge that doesn't belong to any graph yet.
+         */
+        private Edge(MavenComponentBag bag, Node src, Node dst, String scope, boolean optional) {
+            this.src = src;
+            this.dst = dst;
+            this.scope = bag.intern(scope!=null ? scope : "compile");
+            this.optional = optional;
+        }
+
         private void addEdge(Map<Node, List<Edge>> edgeSet, Node index) {
             List<Edge> l = edgeSet.get(index);
             if(l==null)
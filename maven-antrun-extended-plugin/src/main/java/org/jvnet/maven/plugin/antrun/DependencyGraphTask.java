@@ -8,8 +8,11 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Base class for tasks that work with a dependency graph defined as a nested structure.
@@ -21,6 +24,9 @@ public abstract class DependencyGraphTask extends Task {
     private String groupId,artifactId,version,type="jar",classifier;
     private String baseGraph;
     private boolean tolerateBrokenPOMs;
+    private boolean offline;
+    private File graphCache;
+    private boolean prune;
 
     public void setGroupId(String groupId) {
         this.groupId = groupId;
@@ -53,20 +59,55 @@ public abstract class DependencyGraphTask extends Task {
         this.tolerateBrokenPOMs = tolerateBrokenPOMs;
     }
 
+    /**
+     * If true, POMs and artifacts are only looked for in the local repository,
+     * and remote repositories are never contacted.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * If set, the full dependency graph is kept in this file between builds.
+     * If the file exists, the graph is built incrementally from it, only loading POMs that have changed
+     * since then. The updated graph is written back to the file.
+     */
+    public void setGraphCache(File graphCache) {
+        this.graphCache = graphCache;
+    }
+
+    /**
+     * If true, dependencies that the filter would drop anyway are not even expanded while building
+     * the graph, so POMs only reachable through them are never loaded. Optional dependencies and
+     * excluded modules are always left out, and if the filter is a single &lt;scope>, so are the other scopes.
+     *
+     * <p>
+     * Note that this changes the versions picked when the same module is reached through different
+     * paths, as only the remaining paths are considered. This matches what Maven does, but not
+     * what the full graph has, which is why this is off by default.
+     */
+    public void setPrune(boolean prune) {
+        this.prune = prune;
+    }
+
+    protected boolean isOffline() {
+        return offline;
+    }
+
     /**
      * Transforms a graph by applying the given filter to thtese "source graph",
      * which is determined by the various parameter to this task.
      */
     protected DependencyGraph buildGraph(GraphFilter filter) {
         try {
-            DependencyGraph g = buildSourceGraph();
+            DependencyGraph g = buildSourceGraph(prune ? pruningFor(filter) : null);
             if(filter==null)    return g;
 
             // apply transformation to g
             final DependencyGraph old = GraphFilter.CURRENT_INPUT.get();
             GraphFilter.CURRENT_INPUT.set(g);
             try {
-                g = filter.process();
+                g = GraphFilter.process(filter);
             } finally {
                 GraphFilter.CURRENT_INPUT.set(old);
             }
@@ -85,13 +126,36 @@ public abstract class DependencyGraphTask extends Task {
         }
     }
 
+    /**
+     * Determines what can be left out of the source graph, given the filter that's applied to it.
+     */
+    private DependencyGraph.Pruning pruningFor(GraphFilter filter) {
+        if(filter instanceof ScopeFilter && filter.children.isEmpty())
+            return new DependencyGraph.Pruning(((ScopeFilter)filter).getScopes());
+        return new DependencyGraph.Pruning(null);
+    }
+
     /**
      * Computes the source grpah.
+     *
+     * @param pruning
+     *      Can be null.
      */
-    private DependencyGraph buildSourceGraph() throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException, IOException {
+    private DependencyGraph buildSourceGraph(DependencyGraph.Pruning pruning) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException, IOException {
+        Statistics.Timer t = Statistics.get().start(Statistics.Phase.GRAPH,getTaskName());
+        try {
+            return doBuildSourceGraph(pruning);
+        } finally {
+            t.stop();
+        }
+    }
+
+    private DependencyGraph doBuildSourceGraph(DependencyGraph.Pruning pruning) throws ProjectBuildingException, ArtifactResolutionException, ArtifactNotFoundException, IOException {
         MavenComponentBag w = MavenComponentBag.get();
 
         DependencyGraph g;
+        DependencyGraph.Options options = new DependencyGraph.Options()
+            .tolerateBrokenPOMs(tolerateBrokenPOMs).offline(offline).pruning(pruning);
 
         if(baseGraph!=null) {
             g = (DependencyGraph)getProject().getReference(baseGraph);
@@ -100,16 +164,48 @@ public abstract class DependencyGraphTask extends Task {
         } else
         if(groupId==null && artifactId==null && version==null) {
             // if no clue is given whatsoever, use all the project dependencies
-            g = new DependencyGraph(w.project.getArtifact(), tolerateBrokenPOMs);
+            g = new DependencyGraph(w.project.getArtifact(), options.previous(readGraphCache()));
         } else {
             // otherwise pick up dependencies from the specified artifact
-            g = new DependencyGraph(w.createArtifactWithClassifier(groupId,artifactId,version,type,classifier), tolerateBrokenPOMs);
+            g = new DependencyGraph(w.createArtifactWithClassifier(groupId,artifactId,version,type,classifier), options.previous(readGraphCache()));
             log("artifactId "+artifactId,  Project.MSG_DEBUG);
         }
+        if(baseGraph==null) {
+            reportVersionConflicts(g);
+            if(graphCache!=null)
+                GraphDefTask.write(g,graphCache);
+        }
 
         g = new DependencyExclusionFilter().filter(g);
 
         log("Graph="+g,Project.MSG_DEBUG);
         return g;
     }
+
+    private void reportVersionConflicts(DependencyGraph g) {
+        for (Map.Entry<DependencyGraph.Node,List<DependencyGraph.VersionRequest>> e : g.getVersionConflicts().entrySet()) {
+            DependencyGraph.Node n = e.getKey();
+            for (DependencyGraph.VersionRequest r : e.getValue()) {
+                if(r.isSatisfiedBy(n))
+                    log("Picked "+n+" over "+r,Project.MSG_VERBOSE);
+                else
+                    log("Picked "+n+" although "+r+". Trail="+n.getTrail(g),Project.MSG_WARN);
+            }
+        }
+    }
+
+    /**
+     * Reads the graph from the previous build, if any.
+     */
+    private DependencyGraph readGraphCache() {
+        if(graphCache==null || !graphCache.exists())
+            return null;
+        try {
+            return GraphRefFilter.read(graphCache,offline);
+        } catch (BuildException e) {
+            // not worth failing the build for. just build it from scratch
+            log("Ignoring "+graphCache+": "+e.getMessage(),Project.MSG_WARN);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,228 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.tools.ant.Project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * How a tree of {@link GraphFilter}s is evaluated.
+ *
+ * <p>
+ * Evaluated literally, each filter in the tree creates a sub-graph of the graph its child created.
+ * But many filters just keep nodes and edges for which some predicate holds, and the reachable
+ * part of the graph is the same whether those predicates are checked one traversal at a time or
+ * all together. So a chain of them is evaluated as one {@link Select}, which checks
+ * all the predicates in a single traversal:
+ *
+ * <ul>
+ * <li>&lt;scope> inside &lt;scope> keeps the intersection of both scopes.
+ * <li>{@link ListFilter}s are checked on each node, cheaper ones first, so that expensive ones
+ *     like {@link ManifestEntryFilter} only see the nodes that the others accepted.
+ * <li>&lt;subtract> is a node predicate too, once the graph to subtract is computed.
+ * </ul>
+ *
+ * Other filters, and list filters that {@linkplain ListFilter#dependsOnInput() look at their input},
+ * are evaluated as they are.
+ *
+ * <p>
+ * {@link #toString()} explains the plan.
+ */
+abstract class FilterPlan {
+    /**
+     * Evaluates the plan.
+     */
+    abstract DependencyGraph execute();
+
+    /**
+     * Explains this plan, one operation per line, starting with the given indentation.
+     */
+    abstract void explain(StringBuilder buf, String indent);
+
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        explain(buf,"");
+        return buf.toString();
+    }
+
+    /**
+     * Plans the evaluation of the given filter tree.
+     *
+     * @param filter
+     *      null to just take {@link GraphFilter#CURRENT_INPUT}.
+     */
+    static FilterPlan compile(GraphFilter filter) {
+        if(filter==null)
+            return new Leaf(null);
+
+        if(filter instanceof ScopeFilter && filter.children.size()<=1) {
+            Select s = select(filter);
+            s.retainScopes(((ScopeFilter)filter).getScopes());
+            s.fused.add(filter);
+            return s;
+        }
+
+        if(filter instanceof ListFilter && filter.children.size()<=1 && !((ListFilter)filter).dependsOnInput()) {
+            Select s = select(filter);
+            s.nodeFilters.add((ListFilter)filter);
+            s.fused.add(filter);
+            return s;
+        }
+
+        if(filter instanceof SubtractFilter && filter.children.size()==2) {
+            Select s = select(filter);
+            s.excess.add(compile(filter.children.get(1)));
+            s.fused.add(filter);
+            return s;
+        }
+
+        return new Leaf(filter);
+    }
+
+    /**
+     * Plans the first child of the given filter, as a {@link Select} that the filter can add its predicate to.
+     */
+    private static Select select(GraphFilter filter) {
+        FilterPlan input = compile(filter.children.isEmpty() ? null : filter.children.get(0));
+        if(input instanceof Select)
+            return (Select)input;
+        return new Select(input);
+    }
+
+    /**
+     * Evaluates a filter as it is.
+     */
+    private static final class Leaf extends FilterPlan {
+        /**
+         * null for {@link GraphFilter#CURRENT_INPUT}.
+         */
+        private final GraphFilter filter;
+
+        Leaf(GraphFilter filter) {
+            this.filter = filter;
+        }
+
+        DependencyGraph execute() {
+            if(filter==null)
+                return GraphFilter.CURRENT_INPUT.get();
+            return GraphFilter.run(filter);
+        }
+
+        void explain(StringBuilder buf, String indent) {
+            buf.append(indent).append(filter==null ? "input" : filter.getClass().getSimpleName()).append('\n');
+        }
+    }
+
+    /**
+     * Creates a sub-graph of the input with a single traversal,
+     * keeping the nodes and edges that all the predicates accept.
+     */
+    private static final class Select extends FilterPlan {
+        private final FilterPlan input;
+        /**
+         * Scopes of the edges to keep, or null to keep all edges.
+         */
+        private Set<String> scopes;
+        private final List<ListFilter> nodeFilters = new ArrayList<ListFilter>();
+        /**
+         * Nodes of these graphs are excluded.
+         */
+        private final List<FilterPlan> excess = new ArrayList<FilterPlan>();
+        /**
+         * Filters that this plan evaluates, from the innermost.
+         */
+        private final List<GraphFilter> fused = new ArrayList<GraphFilter>();
+
+        Select(FilterPlan input) {
+            this.input = input;
+        }
+
+        void retainScopes(Set<String> s) {
+            if(scopes==null)
+                scopes = new HashSet<String>(s);
+            else
+                scopes.retainAll(s);
+        }
+
+        DependencyGraph execute() {
+            DependencyGraph g = input.execute();
+
+            Statistics.Timer t = Statistics.get().start(Statistics.Phase.FILTER,getName());
+            try {
+                final List<DependencyGraph> excluded = new ArrayList<DependencyGraph>(excess.size());
+                for (FilterPlan p : excess)
+                    excluded.add(p.execute());
+
+                final List<ListFilter> filters = new ArrayList<ListFilter>(nodeFilters);
+                Collections.sort(filters,ListFilter.BY_COST);  // stable, so filters of the same cost run in the given order
+
+                t.arg("inputNodes",g.getAllNodes().size());
+                DependencyGraph r = g.createSubGraph(new GraphVisitor() {
+                    public boolean visit(DependencyGraph.Edge edge) {
+                        return scopes==null || scopes.contains(edge.scope);
+                    }
+
+                    public boolean visit(DependencyGraph.Node node) {
+                        for (DependencyGraph x : excluded)
+                            if(x.contains(node))
+                                return false;
+                        for (ListFilter f : filters)
+                            if(!f.visit(node))
+                                return false;
+                        return true;
+                    }
+                });
+                t.arg("outputNodes",r.getAllNodes().size());
+                return r;
+            } finally {
+                t.stop();
+            }
+        }
+
+        /**
+         * Like "ScopeFilter+GroupIdFilter", for statistics.
+         */
+        private String getName() {
+            StringBuilder buf = new StringBuilder();
+            for (GraphFilter f : fused) {
+                if(buf.length()>0)  buf.append('+');
+                buf.append(f.getClass().getSimpleName());
+            }
+            return buf.toString();
+        }
+
+        void explain(StringBuilder buf, String indent) {
+            buf.append(indent).append("select");
+            if(scopes!=null)
+                buf.append(" scopes=").append(new TreeSet<String>(scopes));
+            if(!nodeFilters.isEmpty()) {
+                List<ListFilter> filters = new ArrayList<ListFilter>(nodeFilters);
+                Collections.sort(filters,ListFilter.BY_COST);
+                buf.append(" nodes=");
+                for (int i=0; i<filters.size(); i++) {
+                    if(i>0)     buf.append(',');
+                    buf.append(filters.get(i).getClass().getSimpleName());
+                }
+            }
+            buf.append(" (").append(getName()).append(")\n");
+            for (FilterPlan p : excess) {
+                buf.append(indent).append("  minus\n");
+                p.explain(buf,indent+"    ");
+            }
+            input.explain(buf,indent+"  ");
+        }
+    }
+
+    /**
+     * Logs the plan of the given filter tree, if it's any different from evaluating the tree as it is.
+     */
+    static void log(GraphFilter filter, FilterPlan plan) {
+        Project p = filter.getProject();
+        if(p!=null && plan instanceof Select)
+            p.log("Filter plan:\n"+plan,Project.MSG_DEBUG);
+    }
+}
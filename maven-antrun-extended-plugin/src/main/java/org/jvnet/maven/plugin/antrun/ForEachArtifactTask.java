@@ -0,0 +1,182 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.MacroDef;
+import org.apache.tools.ant.taskdefs.MacroInstance;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Node;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the nested &lt;sequential> once for each artifact in a dependency graph, possibly in parallel.
+ *
+ * <p>
+ * Each iteration sees the artifact as attributes, like <tt>@{artifact.artifactId}</tt> and
+ * <tt>@{artifact.file}</tt>, just like in &lt;macrodef>. Unlike Ant properties, which are global
+ * and can be set only once, these attributes are scoped to the iteration, so iterations can run
+ * concurrently without seeing each other's values. <tt>@{artifact.id}</tt> is
+ * "groupId:artifactId", followed by ":classifier" if the artifact has one.
+ *
+ * <pre>
+ * &lt;forEachArtifact parallelism="4">
+ *   &lt;scope level="runtime"/>
+ *   &lt;sequential>
+ *     &lt;unjar src="@{artifact.file}" dest="target/classes"/>
+ *   &lt;/sequential>
+ * &lt;/forEachArtifact>
+ * </pre>
+ */
+public class ForEachArtifactTask extends DependencyGraphTask {
+    private GraphFilter filter;
+    private String param = "artifact";
+    private int parallelism = 1;
+    private boolean topologicalOrder;
+    private MacroDef macroDef;
+    private boolean attributesDefined;
+
+    public void init() throws BuildException {
+        super.init();
+        macroDef = new MacroDef();
+        macroDef.setProject(getProject());
+    }
+
+    /**
+     * Prefix of the attributes that the nested tasks use to refer to the artifact.
+     * Defaults to "artifact".
+     */
+    public void setParam(String param) {
+        this.param = param;
+    }
+
+    /**
+     * Number of artifacts processed concurrently. Defaults to 1.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * If true, an artifact is processed only after all the artifacts it depends on are processed.
+     * Artifacts that don't depend on each other are still processed concurrently.
+     * See {@link DependencyGraph#getLayers()}.
+     */
+    public void setTopologicalOrder(boolean topologicalOrder) {
+        this.topologicalOrder = topologicalOrder;
+    }
+
+    /**
+     * Adds a {@link GraphFilter} child. Ant will invoke this for each child element given in build script.
+     */
+    public void add(GraphFilter child) {
+        if(filter!=null)
+            throw new BuildException("Too many filters are given");
+        this.filter = child;
+    }
+
+    /**
+     * The tasks to run for each artifact.
+     */
+    public MacroDef.NestedSequential createSequential() {
+        return macroDef.createSequential();
+    }
+
+    public void execute() throws BuildException {
+        defineAttributes();
+
+        DependencyGraph g = buildGraph(filter);
+        List<List<Node>> batches;
+        try {
+            if(topologicalOrder)
+                batches = g.getLayers();
+            else
+                batches = Collections.singletonList((List<Node>)new ArrayList<Node>(g.getAllNodes()));
+        } catch (IllegalStateException e) {
+            throw new BuildException(e.getMessage(),e);
+        }
+
+        // resolve everything in one go, rather than one by one
+        List<Node> all = new ArrayList<Node>();
+        for (List<Node> batch : batches)
+            all.addAll(batch);
+        DependencyGraph.Resolution r = g.resolveAll(all,parallelism);
+        Map<Node,Exception> failures = r.getFailures();
+        if(!failures.isEmpty()) {
+            Iterator<Map.Entry<Node,Exception>> itr = failures.entrySet().iterator();
+            Map.Entry<Node,Exception> first = itr.next();
+            while(itr.hasNext()) {
+                Map.Entry<Node,Exception> e = itr.next();
+                log("Failed to resolve artifact. Trail="+e.getKey().getTrail(g)+": "+e.getValue(),Project.MSG_ERR);
+            }
+            throw new BuildException("Failed to resolve artifact. Trail="+first.getKey().getTrail(g),first.getValue());
+        }
+
+        for (List<Node> batch : batches) {
+            List<Runnable> jobs = new ArrayList<Runnable>(batch.size());
+            for (final Node n : batch) {
+                jobs.add(new Runnable() {
+                    public void run() {
+                        iterate(n);
+                    }
+                });
+            }
+            if(!Workers.run(jobs,parallelism))
+                throw new BuildException("Interrupted while processing artifacts");
+        }
+    }
+
+    private void defineAttributes() {
+        if(attributesDefined)   return;
+        for (String name : ATTRIBUTES) {
+            MacroDef.Attribute a = new MacroDef.Attribute();
+            a.setName(param+'.'+name);
+            a.setDefault("");
+            macroDef.addConfiguredAttribute(a);
+        }
+        attributesDefined = true;
+    }
+
+    /**
+     * Runs the nested tasks for the given node.
+     */
+    private void iterate(Node n) {
+        log("Processing "+n,Project.MSG_VERBOSE);
+        File f;
+        try {
+            f = n.getArtifactFile(); // already resolved, so this is instant
+        } catch (Exception e) {
+            throw new BuildException("Failed to resolve "+n,e);
+        }
+
+        MacroInstance instance = new MacroInstance();
+        instance.setProject(getProject());
+        instance.setOwningTarget(getOwningTarget());
+        instance.setLocation(getLocation());
+        instance.setTaskName(getTaskName());
+        instance.setMacroDef(macroDef);
+        setAttribute(instance,"groupId",n.groupId);
+        setAttribute(instance,"artifactId",n.artifactId);
+        setAttribute(instance,"version",n.version);
+        setAttribute(instance,"type",n.type);
+        setAttribute(instance,"classifier",n.classifier);
+        setAttribute(instance,"packaging",n.getPackaging());
+        setAttribute(instance,"id",n.classifier!=null ? n.groupId+':'+n.artifactId+':'+n.classifier : n.groupId+':'+n.artifactId);
+        setAttribute(instance,"file",f!=null ? f.getPath() : null);
+        instance.execute();
+    }
+
+    private void setAttribute(MacroInstance instance, String name, String value) {
+        // attribute names of macros are case insensitive, and kept in lower case
+        instance.setDynamicAttribute((param+'.'+name).toLowerCase(Locale.ENGLISH),value!=null ? value : "");
+    }
+
+    private static final String[] ATTRIBUTES = {
+        "groupId","artifactId","version","type","classifier","packaging","id","file"
+    };
+}
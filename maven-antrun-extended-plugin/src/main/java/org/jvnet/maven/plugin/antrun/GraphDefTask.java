@@ -1,6 +1,13 @@
 package org.jvnet.maven.plugin.antrun;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 /**
  * Computes a dependency graph by applying a filter, then store it to the current project
@@ -8,17 +15,48 @@ import org.apache.tools.ant.BuildException;
  *
  * <p>
  * The name is chosen to match with other xxxDef tasks in Ant, like taskDef, typeDef, etc.
+ *
+ * <p>
+ * The graph can be also written to a file, so that it can be read back by &lt;graphRef file="..."/>
+ * in later modules and builds, without computing it again. The file can be also attached to
+ * the current module, so that downstream modules can use &lt;graphRef groupId="..." artifactId="..."/>
+ * instead of walking all the POMs again.
  * 
  * @author Kohsuke Kawaguchi
  */
 public class GraphDefTask extends DependencyGraphTask {
     private String id;
+    private File file;
+    private boolean attach;
+    private String attachClassifier = ATTACHED_CLASSIFIER;
     protected GraphFilter filter;
 
     public void setId(String id) {
         this.id = id;
     }
 
+    /**
+     * Writes the graph to this file.
+     */
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * If true, the graph is attached to the current module as an artifact.
+     * If {@link #setFile(File) the file} is not given, it's written to the build directory.
+     */
+    public void setAttach(boolean attach) {
+        this.attach = attach;
+    }
+
+    /**
+     * Classifier of the attached graph. Defaults to "depgraph".
+     */
+    public void setAttachClassifier(String attachClassifier) {
+        this.attachClassifier = attachClassifier;
+    }
+
     /**
      * Adds a {@link GraphFilter} child. Ant will invoke this for each child element given in build script.
      */
@@ -29,9 +67,45 @@ public class GraphDefTask extends DependencyGraphTask {
     }
 
     public void execute() throws BuildException {
-        if(id==null)
-            throw new BuildException("@id is required");
+        if(id==null && file==null && !attach)
+            throw new BuildException("Either @id, @file, or @attach is required");
+
+        DependencyGraph g = buildGraph(filter);
+        if(id!=null)
+            getProject().addReference(id,g);
+
+        File file = this.file;
+        MavenComponentBag w = MavenComponentBag.get();
+        if(file==null && attach)
+            file = new File(w.project.getBuild().getDirectory(),
+                w.project.getArtifactId()+'-'+w.project.getVersion()+'-'+attachClassifier+'.'+ATTACHED_TYPE);
+        if(file!=null)
+            write(g,file);
+
+        if(attach) {
+            log("Attaching "+file+" as "+attachClassifier, Project.MSG_VERBOSE);
+            w.projectHelper.attachArtifact(w.project,ATTACHED_TYPE,attachClassifier,file);
+        }
+    }
+
+    /**
+     * Artifact type and the default classifier of attached graphs.
+     */
+    /*package*/ static final String ATTACHED_TYPE = "txt", ATTACHED_CLASSIFIER = "depgraph";
 
-        getProject().addReference(id,buildGraph(filter));
+    /*package*/ static void write(DependencyGraph g, File file) {
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if(dir!=null)
+                dir.mkdirs();
+            Writer w = new OutputStreamWriter(new FileOutputStream(file),"UTF-8");
+            try {
+                g.write(w);
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            throw new BuildException("Failed to write "+file,e);
+        }
     }
 }
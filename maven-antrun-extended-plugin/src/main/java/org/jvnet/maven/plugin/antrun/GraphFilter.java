@@ -30,10 +30,40 @@ public abstract class GraphFilter extends ProjectComponent {
      * is a good idea or not, it's hard to say.
      */
     protected DependencyGraph evaluateChild(int index) {
+        DependencyGraph g;
         if(children.size()<=index)
-            return CURRENT_INPUT.get();
+            g = CURRENT_INPUT.get();
         else
-            return children.get(index).process();
+            g = process(children.get(index));
+
+        Statistics stats = Statistics.get();
+        if(stats.isTracing() && g!=null)
+            stats.arg(index==0 ? "inputNodes" : "input"+index+"Nodes", g.getAllNodes().size());
+        return g;
+    }
+
+    /**
+     * Evaluates the given filter tree, by combining filters where possible. See {@link FilterPlan}.
+     */
+    /*package*/ static DependencyGraph process(GraphFilter filter) {
+        FilterPlan plan = FilterPlan.compile(filter);
+        FilterPlan.log(filter,plan);
+        return plan.execute();
+    }
+
+    /**
+     * Invokes {@link #process()} of the given filter, and records the time it took.
+     */
+    /*package*/ static DependencyGraph run(GraphFilter filter) {
+        Statistics.Timer t = Statistics.get().start(Statistics.Phase.FILTER,filter.getClass().getSimpleName());
+        try {
+            DependencyGraph g = filter.process();
+            if(g!=null)
+                t.arg("outputNodes",g.getAllNodes().size());
+            return g;
+        } finally {
+            t.stop();
+        }
     }
 
     /**
@@ -45,6 +75,10 @@ public abstract class GraphFilter extends ProjectComponent {
         return evaluateChild(0);
     }
 
+    /**
+     * The graph that filters take as the input by default. Set by tasks while they evaluate filters.
+     * {@link Workers} carry it over to worker threads.
+     */
     /*package*/ static final ThreadLocal<DependencyGraph> CURRENT_INPUT = new ThreadLocal<DependencyGraph>();
 
 }
@@ -1,20 +1,81 @@
 package org.jvnet.maven.plugin.antrun;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
 import org.apache.tools.ant.BuildException;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Set;
+
 /**
- * Obtains a graph stored by {@link GraphDefTask}. 
+ * Obtains a graph stored by {@link GraphDefTask}, either as a reference, in a file,
+ * or as an artifact attached to another module.
  *
  * @author Kohsuke Kawaguchi
  */
 public class GraphRefFilter extends GraphFilter {
     private String ref;
+    private File file;
+    private String groupId,artifactId,version,classifier=GraphDefTask.ATTACHED_CLASSIFIER;
+    private boolean offline;
 
     public void setRefid(String ref) {
         this.ref = ref;
     }
 
+    /**
+     * Reads a graph written by &lt;graphDef file="..."/>.
+     */
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads a graph attached by &lt;graphDef attach="true"/> in another module.
+     */
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public void setArtifactId(String artifactId) {
+        this.artifactId = artifactId;
+    }
+
+    /**
+     * Optional. If omitted, the version is taken from the dependencies of the current project.
+     */
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Classifier of the attached graph. Defaults to "depgraph".
+     */
+    public void setClassifier(String classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * If true, the attached graph, and the POMs and artifacts that the graph read back still needs,
+     * are only looked up in the local repository.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
     public DependencyGraph process() {
+        if(file!=null)
+            return read(file,offline);
+        if(artifactId!=null)
+            return read(resolveAttachedGraph(),offline);
+        if(ref==null)
+            throw new BuildException("Either @refid, @file, or @artifactId is required");
+
         Object o = getProject().getReference(ref);
         if(o==null)
             throw new BuildException("No graph exists with id="+ref);
@@ -23,4 +84,41 @@ public class GraphRefFilter extends GraphFilter {
 
         throw new BuildException("id="+ref+" is not a graph but "+o);
     }
+
+    private File resolveAttachedGraph() {
+        MavenComponentBag w = MavenComponentBag.get();
+        String g = groupId, v = version;
+        if(v==null) {
+            for (Artifact a : (Set<Artifact>)w.project.getArtifacts())
+                if(a.getArtifactId().equals(artifactId) && (groupId==null || a.getGroupId().equals(groupId))) {
+                    g = a.getGroupId();
+                    v = a.getVersion();
+                }
+            if(v==null)
+                throw new BuildException("@version is required as "+artifactId+" is not a dependency of this project");
+        }
+        if(g==null)
+            throw new BuildException("@groupId is required");
+
+        Artifact a = w.factory.createArtifactWithClassifier(g,artifactId,v,GraphDefTask.ATTACHED_TYPE,classifier);
+        try {
+            w.resolveArtifact(a, offline ? Collections.EMPTY_LIST : null);
+        } catch (AbstractArtifactResolutionException e) {
+            throw new BuildException("Failed to resolve the graph attached to "+g+':'+artifactId+':'+v,e);
+        }
+        return a.getFile();
+    }
+
+    /*package*/ static DependencyGraph read(File file, boolean offline) {
+        try {
+            Reader r = new InputStreamReader(new FileInputStream(file),"UTF-8");
+            try {
+                return DependencyGraph.read(r,offline);
+            } finally {
+                r.close();
+            }
+        } catch (IOException e) {
+            throw new BuildException("Failed to read a graph from "+file,e);
+        }
+    }
 }
@@ -1,112 +1,222 @@
 package org.jvnet.maven.plugin.antrun;
 
 import org.apache.commons.io.IOUtils;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Edge;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Node;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.util.Map;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Generates a dependency diagram by using GraphViz.
  *
+ * <p>
+ * The output is streamed: every node and edge statement is formatted into a single
+ * reusable buffer with a fixed set of attribute slots, and the buffer is written
+ * out in large chunks. So the cost of visualizing a big graph is dominated by I/O,
+ * not by allocation.
+ *
  * @author Kohsuke Kawaguchi
  */
-public class GraphVizVisualizer implements GraphVisitor {
+public class GraphVizVisualizer {
 
-    private final PrintWriter out;
+    private final Writer out;
+
+    /**
+     * Statements are formatted in here, then written to {@link #out} in bulk.
+     */
+    private final StringBuilder buf = new StringBuilder(BUFFER_SIZE+256);
+
+    /**
+     * Scratch space for copying {@link #buf} to {@link #out}.
+     */
+    private char[] chars = new char[BUFFER_SIZE+256];
+
+    /**
+     * Subgraphs to paint, in the order they are added. Later ones win.
+     */
+    private final List<Coloring> colorings = new ArrayList<Coloring>();
 
-    private final Map<Object/*Node|Edge*/,String> colors = new HashMap<Object,String>();
+    /**
+     * Number of nodes written so far, so that IDs stay unique across {@link #write(DependencyGraph)} calls.
+     */
+    private int written;
 
     /**
-     * Unique IDs given to GraphViz for each node.
+     * If true, {@link #write(DependencyGraph)} groups nodes into a cluster per groupId.
      */
-    private Map<DependencyGraph.Node,String> ids = new HashMap<DependencyGraph.Node, String>();
+    private boolean clusterByGroupId;
 
-    public GraphVizVisualizer(PrintWriter out) {
+    public GraphVizVisualizer(Writer out) {
         this.out = out;
-        out.println("digraph G {");
+        buf.append("digraph G {\n");
     }
 
     public GraphVizVisualizer(OutputStream out) {
-        this(new PrintWriter(out));
+        this(new OutputStreamWriter(out));
+    }
+
+    /**
+     * If set to true, {@link #write(DependencyGraph)} draws nodes of the same groupId
+     * inside a cluster.
+     */
+    public void setClusterByGroupId(boolean clusterByGroupId) {
+        this.clusterByGroupId = clusterByGroupId;
     }
 
     /**
      * Paint all edges and nodes that belong to the given subgraph by using the specified color.
      */
-    public void addColoredSubgraph(DependencyGraph g, final String color) {
-        g.accept(new GraphVisitor() {
-            public boolean visit(DependencyGraph.Edge edge) {
-                colors.put(edge,color);
-                return true;
+    public void addColoredSubgraph(DependencyGraph g, String color) {
+        colorings.add(new Coloring(g,color));
+    }
+
+    /**
+     * Writes the whole graph in one pass.
+     *
+     * <p>
+     * Each node is identified by its position in {@link DependencyGraph#getAllNodes()}, which
+     * is also where its color is kept, so nodes are never looked up by anything but that index
+     * while writing. Clusters are emitted along the way, since the nodes are sorted by their groupId.
+     */
+    public void write(DependencyGraph g) throws IOException {
+        List<Node> nodes = new ArrayList<Node>(g.getAllNodes());
+        int size = nodes.size();
+        int base = written;
+        written += size;
+
+        Map<Node,Integer> index = new HashMap<Node,Integer>(size*2);
+        for (Node n : nodes)
+            index.put(n,index.size());
+
+        // colors of nodes, and of their forward edges in the order of getForwardEdges(g)
+        String[] nodeColors = new String[size];
+        String[][] edgeColors = new String[size][];
+        for (Coloring c : colorings) {
+            for (Node n : c.graph.getAllNodes()) {
+                Integer i = index.get(n);
+                if(i==null)     continue;
+                nodeColors[i] = c.color;
+                List<Edge> edges = nodes.get(i).getForwardEdges(g);
+                for (Edge e : n.getForwardEdges(c.graph)) {
+                    int j = edges.indexOf(e);
+                    if(j<0)     continue;
+                    if(edgeColors[i]==null)
+                        edgeColors[i] = new String[edges.size()];
+                    edgeColors[i][j] = c.color;
+                }
             }
+        }
 
-            public boolean visit(DependencyGraph.Node node) {
-                colors.put(node,color);
-                return true;
+        String cluster = null;
+        int clusters = 0;
+        for (int i=0; i<size; i++) {
+            Node n = nodes.get(i);
+            if(clusterByGroupId && !n.groupId.equals(cluster)) {
+                if(cluster!=null)
+                    buf.append("}\n");
+                cluster = n.groupId;
+                buf.append("subgraph cluster").append(clusters++).append(" {\nlabel=\"").append(cluster).append("\";\n");
             }
-        });
-    }
+            node(base+i,n,nodeColors[i]);
+        }
+        if(cluster!=null)
+            buf.append("}\n");
 
-    public void close() {
-        out.println("}");
-        out.close();
+        for (int i=0; i<size; i++) {
+            List<Edge> edges = nodes.get(i).getForwardEdges(g);
+            for (int j=0; j<edges.size(); j++) {
+                Edge e = edges.get(j);
+                edge(base+i,base+index.get(e.dst),e,edgeColors[i]!=null ? edgeColors[i][j] : null);
+            }
+        }
     }
 
-    public boolean visit(DependencyGraph.Edge edge) {
-        Map<String,String> attrs = new HashMap<String, String>();
+    /**
+     * Completes the graph and closes the output.
+     *
+     * @throws IOException
+     *      if the output couldn't be written completely.
+     */
+    public void close() throws IOException {
+        try {
+            buf.append("}\n");
+            flush(0);
+        } finally {
+            out.close();
+        }
+    }
 
+    private void edge(int src, int dst, Edge edge, String color) throws IOException {
+        buf.append('n').append(src).append(" -> n").append(dst).append(" [");
+        int n=0;
         if(!edge.scope.equals("compile"))   // most of dependencies are compile, so skip them for brevity
-            attrs.put("label",edge.scope);
+            n = attribute(n,"label",edge.scope);
         if(edge.optional)
-            attrs.put("style","dotted");
-        attrs.put("color",colors.get(edge));
+            n = attribute(n,"style","dotted");
+        n = attribute(n,"color",color);
         if(edge.src.groupId.equals(edge.dst.groupId))
-            attrs.put("weight","10");
-
-        out.printf("%s -> %s ", id(edge.src), id(edge.dst));
-        writeAttributes(attrs);
-        return true;
+            attribute(n,"weight","10");
+        buf.append("];\n");
+        flush(BUFFER_SIZE);
     }
 
-    public boolean visit(DependencyGraph.Node node) {
-        Map<String,String> attrs = new HashMap<String, String>();
-        attrs.put("label",node.groupId+':'+node.artifactId);
-        attrs.put("color",colors.get(node));
+    private void node(int id, Node node, String color) throws IOException {
+        buf.append('n').append(id).append(" [label=\"").append(node.groupId).append(':').append(node.artifactId).append('"');
+        attribute(1,"color",color);
+        buf.append("];\n");
+        flush(BUFFER_SIZE);
+    }
 
-        out.print(id(node)+' ');
-        writeAttributes(attrs);
-        return true;
+    /**
+     * Appends one attribute to {@link #buf}, unless the value is null.
+     *
+     * @param n
+     *      Number of attributes written so far for the current statement.
+     * @return
+     *      Updated number of attributes.
+     */
+    private int attribute(int n, String key, String value) {
+        if(value==null)     return n;   // skip
+        if(n>0)
+            buf.append(',');
+        buf.append(key).append("=\"").append(value).append('"');
+        return n+1;
     }
 
-    private void writeAttributes(Map<String,String> attributes) {
-        out.print('[');
-        boolean first=true;
-        for (Map.Entry<String,String> e : attributes.entrySet()) {
-            if(e.getValue()==null)  continue;   // skip
-
-            out.printf("%s=\"%s\"",e.getKey(),e.getValue());
-            if(!first)
-                out.print(',');
-            else
-                first = false;
-        }
-        out.println("];");
+    /**
+     * Writes out the buffered statements, if there are more than the given threshold.
+     */
+    private void flush(int threshold) throws IOException {
+        int len = buf.length();
+        if(len<=threshold)  return;
+        if(chars.length<len)
+            chars = new char[len];
+        buf.getChars(0,len,chars,0);
+        out.write(chars,0,len);
+        buf.setLength(0);
     }
 
-    private String id(DependencyGraph.Node n) {
-        String id = ids.get(n);
-        if(id==null) {
-            id = "n"+ids.size();
-            ids.put(n,id);
+    private static final class Coloring {
+        final DependencyGraph graph;
+        final String color;
+
+        Coloring(DependencyGraph graph, String color) {
+            this.graph = graph;
+            this.color = color;
         }
-        return id;
     }
 
+    private static final int BUFFER_SIZE = 8192;
+
     /**
      * Returns a {@link GraphVizVisualizer} that generates a PNG file.
      */
@@ -114,14 +224,18 @@ public class GraphVizVisualizer implements GraphVisitor {
         ProcessBuilder pb = new ProcessBuilder("dot","-Tpng");
         final Process proc = pb.start();
 
+        final IOException[] copyFailure = new IOException[1];
         final Thread stdoutCopier = new Thread() {
             public void run() {
                 try {
                     FileOutputStream out = new FileOutputStream(pngFile);
-                    IOUtils.copy(proc.getInputStream(), out);
-                    IOUtils.closeQuietly(out);
+                    try {
+                        IOUtils.copy(proc.getInputStream(), out);
+                    } finally {
+                        out.close();
+                    }
                 } catch (IOException e) {
-                    throw new Error(e);
+                    copyFailure[0] = e; // reported by close()
                 }
             }
         };
@@ -141,10 +255,15 @@ public class GraphVizVisualizer implements GraphVisitor {
 
         return new GraphVizVisualizer(proc.getOutputStream()) {
             @Override
-            public void close() {
+            public void close() throws IOException {
                 super.close();
                 try {
                     stdoutCopier.join();
+                    int exitCode = proc.waitFor();
+                    if(copyFailure[0]!=null)
+                        throw (IOException)new IOException("Failed to write "+pngFile).initCause(copyFailure[0]);
+                    if(exitCode!=0)
+                        throw new IOException("dot failed with exit code "+exitCode+" while writing "+pngFile);
                 } catch (InterruptedException e) {
                     // handle interruption later
                     Thread.currentThread().interrupt();
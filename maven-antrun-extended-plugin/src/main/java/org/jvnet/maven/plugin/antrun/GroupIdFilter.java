@@ -16,7 +16,7 @@ public class GroupIdFilter  extends ListFilter {
     }
 
     public boolean visit(DependencyGraph.Node node) {
-        String p = node.getProject().getGroupId();
+        String p = node.groupId;
         if(groupId !=null && groupId.equals(p))
             return true;    // positive match
         if(groupIdNot !=null && !groupIdNot.equals(p))
@@ -1,5 +1,8 @@
 package org.jvnet.maven.plugin.antrun;
 
+import java.util.Collection;
+import java.util.Comparator;
+
 /**
  * {@link ListFilter} is a special kind of {@link GraphFilter}
  * that only filters graph based on {@link DependencyGraph.Node}.
@@ -23,4 +26,51 @@ public abstract class ListFilter extends GraphFilter implements GraphVisitor {
     public final boolean visit(DependencyGraph.Edge edge) {
         return true;
     }
+
+    /**
+     * Called once before this filter {@link #visit(DependencyGraph.Node) visits} each of the given nodes,
+     * when this filter is used as a list filter. Filters can override this to do expensive
+     * work, like artifact resolution, in bulk.
+     *
+     * @param g
+     *      The graph the nodes came from.
+     * @param parallelism
+     *      How many threads the filter may use, as configured by the user.
+     */
+    protected void prepare(DependencyGraph g, Collection<DependencyGraph.Node> nodes, int parallelism) {
+    }
+
+    /**
+     * Rough cost of {@link #visit(DependencyGraph.Node)}, relative to a simple comparison of
+     * the node's fields, which costs 1. When several filters are combined, cheaper ones are
+     * checked first, so that expensive ones only see the nodes that the others accepted.
+     */
+    /*package*/ int getCost() {
+        return 1;
+    }
+
+    /**
+     * Returns true if {@link #visit(DependencyGraph.Node)} depends on the input graph,
+     * and not just the given node. Such a filter can't be combined with others. See {@link FilterPlan}.
+     */
+    /*package*/ boolean dependsOnInput() {
+        return false;
+    }
+
+    /**
+     * Returns true if {@link #visit(DependencyGraph.Node)} can be called from multiple threads at once.
+     * Only worth it for expensive filters, which then look at nodes in parallel when used as a list filter.
+     */
+    /*package*/ boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Orders filters from the cheapest.
+     */
+    /*package*/ static final Comparator<ListFilter> BY_COST = new Comparator<ListFilter>() {
+        public int compare(ListFilter o1, ListFilter o2) {
+            return o1.getCost()-o2.getCost();
+        }
+    };
 }
@@ -5,6 +5,7 @@ import org.apache.tools.ant.BuildException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.jar.Attributes;
@@ -24,6 +25,25 @@ public class ManifestEntryFilter extends ListFilter {
         entry = v;
     }
 
+    /**
+     * We need all the jar files, so resolve them upfront.
+     */
+    protected void prepare(DependencyGraph g, Collection<DependencyGraph.Node> nodes, int parallelism) {
+        // failures are reported by visit, in the same way as they used to be
+        g.resolveAll(nodes,parallelism);
+    }
+
+    /**
+     * Opens the jar file of each node.
+     */
+    /*package*/ int getCost() {
+        return 100;
+    }
+
+    /*package*/ boolean isThreadSafe() {
+        return true;
+    }
+
     public boolean visit(DependencyGraph.Node node) {
         try {
             File v = node.getArtifactFile();
@@ -31,14 +31,28 @@ import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
+import org.apache.maven.artifact.versioning.ArtifactVersion;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectBuilder;
 import org.apache.maven.project.MavenProjectHelper;
+import org.apache.maven.project.ProjectBuildingException;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Exposes maven components to the Ant tasks.
@@ -89,6 +103,64 @@ final class MavenComponentBag {
     public final MavenProjectHelper projectHelper;
     
     public final MavenProjectBuilder mavenProjectBuilder;
+
+    /**
+     * Where the time went during this execution.
+     */
+    public final Statistics statistics = new Statistics();
+
+    /**
+     * If non-null, remembers failures across builds.
+     */
+    private NegativeResultCache negativeResultCache;
+
+    /**
+     * POMs built so far, keyed by "groupId:artifactId:version".
+     * Shared by all the nodes of all the graphs in this execution, since building one is expensive.
+     */
+    private final Map<String,Reference<MavenProject>> projects = new ConcurrentHashMap<String,Reference<MavenProject>>();
+
+    /**
+     * POMs being built right now, keyed like {@link #projects}, so that threads that need the same POM
+     * wait for the one building it, instead of building it again.
+     */
+    private final ConcurrentMap<String,FutureTask<MavenProject>> projectsInProgress = new ConcurrentHashMap<String,FutureTask<MavenProject>>();
+
+    /**
+     * See {@link #setLeanGraphs(boolean)}.
+     */
+    private boolean leanGraphs;
+
+    /**
+     * See {@link #setResolveVersionRanges(boolean)}.
+     */
+    private boolean resolveVersionRanges;
+
+    /**
+     * Versions available in the repositories, keyed by "groupId:artifactId" followed by the URLs
+     * of the repositories looked at. See {@link #getAvailableVersions(Artifact, List)}.
+     */
+    private final Map<String,List<ArtifactVersion>> availableVersions = new ConcurrentHashMap<String,List<ArtifactVersion>>();
+
+    /**
+     * Artifacts that were found to be missing during this execution, so that
+     * we don't look for them again. Used as a set.
+     * Typical example is a classifier that most modules don't have, like "sources".
+     */
+    private final Map<String,Boolean> missingArtifacts = new ConcurrentHashMap<String,Boolean>();
+
+    /**
+     * Canonical instances of coordinate strings, shared by all the graphs in this execution.
+     * See {@link #intern(String)}.
+     */
+    private final ConcurrentHashMap<String,String> strings = new ConcurrentHashMap<String,String>();
+
+    /**
+     * Canonical node IDs, keyed by groupId, artifactId, and classifier.
+     * See {@link #nodeId(String, String, String)}.
+     */
+    private final ConcurrentMap<String,ConcurrentMap<String,ConcurrentMap<String,String>>> nodeIds
+        = new ConcurrentHashMap<String,ConcurrentMap<String,ConcurrentMap<String,String>>>();
     
     /**
      * Creates a wrapper and associates that with the current thread.
@@ -113,12 +185,51 @@ final class MavenComponentBag {
         this.artifactMetadataSource = artifactMetadataSource;
         this.artifactHandlerManager = artifactHandlerManager;
         this.mavenProjectBuilder = mavenProjectBuilder;
-        INSTANCES.set(this);
+        INSTANCES.set(new AtomicReference<MavenComponentBag>(this));
     }
     
     public void setVerifyArtifact(boolean verifyArtifact) {
         this.verifyArtifact = verifyArtifact;
     }
+
+    /**
+     * If true, {@link DependencyGraph.Node}s built from now on only keep the information that
+     * graph operations need, and let go of the parsed POMs, which would otherwise keep the entire
+     * model alive for the life of the graph. {@link DependencyGraph.Node#getProject()} reloads
+     * POMs as necessary.
+     *
+     * <p>
+     * This trades CPU for memory, so it's only worth it for really large graphs.
+     */
+    public void setLeanGraphs(boolean leanGraphs) {
+        this.leanGraphs = leanGraphs;
+    }
+
+    public boolean isLeanGraphs() {
+        return leanGraphs;
+    }
+
+    /**
+     * If true, {@link DependencyGraph}s built from now on resolve version ranges in dependencies
+     * against the versions available in the repositories, and record all the versions requested
+     * for each module, so that {@link DependencyGraph#getVersionConflicts()} can report them.
+     * Otherwise, every version is taken literally.
+     */
+    public void setResolveVersionRanges(boolean resolveVersionRanges) {
+        this.resolveVersionRanges = resolveVersionRanges;
+    }
+
+    public boolean isResolveVersionRanges() {
+        return resolveVersionRanges;
+    }
+
+    /*package*/ void setNegativeResultCache(NegativeResultCache negativeResultCache) {
+        this.negativeResultCache = negativeResultCache;
+    }
+
+    /*package*/ NegativeResultCache getNegativeResultCache() {
+        return negativeResultCache;
+    }
     
     /**
      * Return the artifact path in the local repository for an artifact defined by its <code>groupId</code>,
@@ -145,16 +256,43 @@ final class MavenComponentBag {
     }
     
     
-    private static final ThreadLocal<MavenComponentBag> INSTANCES = new ThreadLocal<MavenComponentBag>();
+    /**
+     * The current instance.
+     *
+     * <p>
+     * Threads started during an execution, like the ones of Ant's &lt;parallel>, inherit it, so that tasks
+     * running in them work. The instance is held through a box shared by all those threads, so that
+     * {@link #reset()} releases the instance for all of them, even if some of them live longer
+     * than the execution.
+     */
+    private static final ThreadLocal<AtomicReference<MavenComponentBag>> INSTANCES = new InheritableThreadLocal<AtomicReference<MavenComponentBag>>();
     
     public static MavenComponentBag get() {
-        return INSTANCES.get();
+        AtomicReference<MavenComponentBag> box = INSTANCES.get();
+        return box!=null ? box.get() : null;
     }
     
     /**
-     * Releases the instance tied to the thread to avoid memory leak.
+     * Runs the given job in the current thread with this as the {@linkplain #get() current instance}.
+     * Used to run jobs in threads that didn't inherit it, like the ones of a thread pool.
+     */
+    /*package*/ void runInContext(Runnable job) {
+        AtomicReference<MavenComponentBag> old = INSTANCES.get();
+        INSTANCES.set(new AtomicReference<MavenComponentBag>(this));
+        try {
+            job.run();
+        } finally {
+            INSTANCES.set(old);
+        }
+    }
+
+    /**
+     * Releases the instance tied to the thread, and the threads that inherited it, to avoid memory leak.
      */
     public static void reset() {
+        AtomicReference<MavenComponentBag> box = INSTANCES.get();
+        if(box!=null)
+            box.set(null);
         INSTANCES.set(null);
     }
     
@@ -296,23 +434,324 @@ final class MavenComponentBag {
         return valueFromPom.equalsIgnoreCase(valueFromTask);
     }
 
+    /**
+     * Returns the canonical instance of the given string, such as a groupId.
+     *
+     * <p>
+     * Large graphs repeat the same groupIds, versions, scopes, and so on over and over again,
+     * so this saves memory, and makes equality checks between them mostly identity checks.
+     * Unlike {@link String#intern()}, the table goes away with this execution.
+     *
+     * @return
+     *      null if the string is null.
+     */
+    public String intern(String s) {
+        if(s==null)     return null;
+        String v = strings.putIfAbsent(s,s);
+        return v!=null ? v : s;
+    }
+
+    /**
+     * Returns the canonical "groupId:artifactId:classifier" ID of a {@link DependencyGraph.Node}.
+     *
+     * <p>
+     * Nodes are looked up by this ID all the time while graphs are built, so once an ID is known,
+     * this finds it without allocating anything.
+     */
+    public String nodeId(String groupId, String artifactId, String classifier) {
+        ConcurrentMap<String,ConcurrentMap<String,String>> byArtifactId = nodeIds.get(key(groupId));
+        if(byArtifactId==null) {
+            byArtifactId = new ConcurrentHashMap<String,ConcurrentMap<String,String>>();
+            ConcurrentMap<String,ConcurrentMap<String,String>> v = nodeIds.putIfAbsent(key(groupId),byArtifactId);
+            if(v!=null)     byArtifactId = v;
+        }
+        ConcurrentMap<String,String> byClassifier = byArtifactId.get(key(artifactId));
+        if(byClassifier==null) {
+            byClassifier = new ConcurrentHashMap<String,String>();
+            ConcurrentMap<String,String> v = byArtifactId.putIfAbsent(key(artifactId),byClassifier);
+            if(v!=null)     byClassifier = v;
+        }
+        String id = byClassifier.get(key(classifier));
+        if(id==null) {
+            id = intern(groupId+':'+artifactId+':'+classifier);
+            byClassifier.putIfAbsent(key(classifier),id);
+        }
+        return id;
+    }
+
+    /**
+     * {@link ConcurrentHashMap} doesn't take null keys. Null and "null" make the same ID anyway.
+     */
+    private static String key(String s) {
+        return s!=null ? s : "null";
+    }
+
+    /**
+     * Builds the POM of the given module from the repository.
+     *
+     * <p>
+     * The result is cached for the rest of the execution (unless memory runs low), so different classifiers and types
+     * of the same module, and the same module appearing in different graphs, share a single
+     * {@link MavenProject}. Callers must not modify it.
+     *
+     * @param offline
+     *      If true, only look at the local repository.
+     */
+    public MavenProject buildProject(final String groupId, final String artifactId, final String version, final boolean offline) throws ProjectBuildingException {
+        final String gav = groupId+':'+artifactId+':'+version;
+        Reference<MavenProject> ref = projects.get(gav);
+        MavenProject p = ref!=null ? ref.get() : null;
+        if(p!=null) {
+            statistics.increment(Statistics.Counter.POMS_REUSED);
+            return p;
+        }
+
+        FutureTask<MavenProject> task = new FutureTask<MavenProject>(new Callable<MavenProject>() {
+            public MavenProject call() throws ProjectBuildingException {
+                return doBuildProject(gav,groupId,artifactId,version,offline);
+            }
+        });
+        FutureTask<MavenProject> running = projectsInProgress.putIfAbsent(gav,task);
+        if(running==null) {
+            try {
+                task.run();
+            } finally {
+                projectsInProgress.remove(gav);
+            }
+        } else {
+            statistics.increment(Statistics.Counter.POMS_REUSED);
+            task = running;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProjectBuildingException(gav,"Interrupted while waiting for the POM to be built");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof ProjectBuildingException)
+                throw (ProjectBuildingException)cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if(cause instanceof Error)
+                throw (Error)cause;
+            throw new AssertionError(cause);    // call() throws nothing else
+        }
+    }
+
+    private MavenProject doBuildProject(String gav, String groupId, String artifactId, String version, boolean offline) throws ProjectBuildingException {
+        // this create another Artifact instance whose type is 'pom'
+        Artifact pom = factory.createProjectArtifact(groupId,artifactId,version);
+
+        // a POM in the local repository is always tried, since it may have been installed after the failure
+        String key = null;
+        if(!offline && negativeResultCache!=null && !pom.isSnapshot()) {
+            key = NegativeResultCache.pomKey(groupId,artifactId,version);
+            if(!isInLocalRepository(pom) && negativeResultCache.isKnownFailure(key))
+                throw new ProjectBuildingException(gav,"Recently failed to build the POM, so not trying again");
+        }
+
+        MavenProject p;
+        Statistics.Timer t = statistics.start(Statistics.Phase.POM,gav);
+        try {
+            // no lock here: builds of different POMs run in parallel, and builds of the same one are
+            // coalesced by buildProject, so a thread only ever waits for the POM it actually needs
+            p = mavenProjectBuilder.buildFromRepository(pom,
+                    offline ? Collections.EMPTY_LIST : project.getRemoteArtifactRepositories(),
+                    localRepository);
+            statistics.increment(Statistics.Counter.POMS_BUILT);
+        } catch (ProjectBuildingException e) {
+            if(key!=null && !isTransient(e))
+                negativeResultCache.addFailure(key);
+            throw e;
+        } finally {
+            t.stop();
+        }
+        if(key!=null)
+            negativeResultCache.removeFailure(key);
+        // soft, so that POMs that nobody else refers to can be discarded under memory pressure
+        projects.put(gav,new SoftReference<MavenProject>(p));
+        return p;
+    }
+
+    /**
+     * Returns true if the given failure is caused by an error, like a network one, that may go away
+     * by itself, as opposed to a POM that is missing or broken. The former isn't worth remembering across builds.
+     */
+    private static boolean isTransient(Throwable e) {
+        for( ; e!=null; e=e.getCause() )
+            if(e instanceof ArtifactResolutionException)
+                return true;
+        return false;
+    }
+
+    /**
+     * Lists the versions of the given module available in the given repositories.
+     *
+     * <p>
+     * The result is cached for the rest of the execution, so that all the version ranges
+     * that refer to the same module through the same repositories only look at the repository metadata once.
+     * POMs that declare different repositories may see different versions, so they don't share results.
+     */
+    public List<ArtifactVersion> getAvailableVersions(Artifact artifact, List remoteRepositories) throws ArtifactMetadataRetrievalException {
+        StringBuilder buf = new StringBuilder();
+        buf.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId());
+        int len = buf.length();
+        for (Object r : remoteRepositories)
+            buf.append('|').append(((ArtifactRepository)r).getUrl());
+        String key = buf.toString();
+
+        List<ArtifactVersion> v = availableVersions.get(key);
+        if(v==null) {
+            Statistics.Timer t = statistics.start(Statistics.Phase.RESOLVE,key.substring(0,len));
+            try {
+                v = Collections.unmodifiableList(new ArrayList<ArtifactVersion>(
+                    artifactMetadataSource.retrieveAvailableVersions(artifact,localRepository,remoteRepositories)));
+            } finally {
+                t.stop();
+            }
+            availableVersions.put(key,v);
+        }
+        return v;
+    }
+
+    /**
+     * Computes a fingerprint of the POM of the given module and of all its parents in the local repository.
+     * It changes whenever any of them is installed or downloaded again. Parents are included because
+     * a module inherits dependencies from them.
+     *
+     * @return
+     *      null if any of the POMs isn't in the local repository.
+     * @see #isPomUnchanged(String)
+     */
+    public String getPomFingerprint(MavenProject pom) {
+        StringBuilder buf = new StringBuilder();
+        for( MavenProject p=pom; p!=null; p=p.getParent() ) {
+            String f = getPomFingerprint(p.getGroupId(),p.getArtifactId(),p.getVersion());
+            if(f==null)
+                return null;
+            if(buf.length()>0)  buf.append('|');
+            buf.append(p.getGroupId()).append(':').append(p.getArtifactId()).append(':').append(p.getVersion());
+            buf.append('@').append(f);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Checks if none of the POMs that the given {@linkplain #getPomFingerprint(MavenProject) fingerprint}
+     * covers has changed since it was computed.
+     */
+    public boolean isPomUnchanged(String fingerprint) {
+        if(fingerprint==null)
+            return false;
+        for (String pom : fingerprint.split("\\|")) {
+            int idx = pom.lastIndexOf('@');
+            if(idx<0)
+                return false;   // not something getPomFingerprint(MavenProject) computed
+            String[] gav = pom.substring(0,idx).split(":");
+            if(gav.length!=3 || !pom.substring(idx+1).equals(getPomFingerprint(gav[0],gav[1],gav[2])))
+                return false;
+        }
+        return true;
+    }
+
+    private String getPomFingerprint(String groupId, String artifactId, String version) {
+        if(localRepository==null || version==null)
+            return null;
+        File f = new File(localRepository.getBasedir(),
+            localRepository.pathOf(factory.createProjectArtifact(groupId,artifactId,version)));
+        if(!f.isFile())
+            return null;
+        return f.lastModified()+"/"+f.length();
+    }
+
+    private boolean isInLocalRepository(Artifact artifact) {
+        return localRepository!=null
+            && new File(localRepository.getBasedir(),localRepository.pathOf(artifact)).isFile();
+    }
+
     /**
      * Obtains/downloads the artifact file by using the current set of repositories.
+     *
+     * <p>
+     * Released artifacts that are already in the local repository are picked up from there
+     * directly, because they never change once released, and going through {@link ArtifactResolver}
+     * only costs us metadata checks.
      */
     public void resolveArtifact(Artifact artifact, List remoteRepositories) throws ArtifactResolutionException, ArtifactNotFoundException {
         if(remoteRepositories ==null)
             remoteRepositories =  this.remoteRepositories; // fall back to the default list
+        Statistics.Timer t = statistics.start(Statistics.Phase.RESOLVE,artifact.getId());
         try {
-            resolver.resolve(artifact, remoteRepositories,localRepository);
-        } catch (ArtifactResolutionException e) {
-            // these pointless catch blocks are convenient for setting breakpoint 
-            throw e;
-        } catch (ArtifactNotFoundException e) {
-            throw e;
+            File local = findInLocalRepository(artifact);
+            if(local!=null) {
+                artifact.setFile(local);
+                artifact.setResolved(true);
+                statistics.increment(Statistics.Counter.LOCAL_REPOSITORY_HITS);
+                if(negativeResultCache!=null)
+                    negativeResultCache.removeFailure(NegativeResultCache.artifactKey(artifact));
+                return;
+            }
+            // a failure without any remote repository to look at doesn't tell us anything,
+            // so it's neither remembered nor does it stop a later lookup that has repositories.
+            // Neither does one of an artifact that's in the local repository now, like a snapshot installed since.
+            File target = localRepository!=null ? new File(localRepository.getBasedir(),localRepository.pathOf(artifact)) : null;
+            boolean remote = !remoteRepositories.isEmpty();
+            boolean installed = target!=null && target.isFile();
+            String id = NegativeResultCache.artifactKey(artifact);
+            if(remote && !installed && missingArtifacts.containsKey(id))
+                throw new ArtifactNotFoundException("Already failed to find this artifact earlier",artifact);
+
+            // snapshots can be deployed at any time, so their failures are not worth remembering across builds
+            String key = null;
+            if(negativeResultCache!=null && remote && !artifact.isSnapshot()) {
+                key = id;
+                if(!installed && negativeResultCache.isKnownFailure(key))
+                    throw new ArtifactNotFoundException("Recently failed to resolve, so not trying again",artifact);
+            }
+            // to tell if the artifact is downloaded
+            long lastModified = target!=null ? target.lastModified() : 0;
+            try {
+                resolver.resolve(artifact, remoteRepositories,localRepository);
+            } catch (ArtifactResolutionException e) {
+                // most likely a network or transfer error, which the next build should retry
+                throw e;
+            } catch (ArtifactNotFoundException e) {
+                if(remote)      missingArtifacts.put(id,true);
+                if(key!=null)   negativeResultCache.addFailure(key);
+                throw e;
+            }
+            missingArtifacts.remove(id);
+            if(key!=null)
+                negativeResultCache.removeFailure(key);
+            statistics.increment(Statistics.Counter.ARTIFACTS_RESOLVED);
+            if(target!=null && target.lastModified()!=lastModified)
+                statistics.add(Statistics.Counter.BYTES_DOWNLOADED,target.length());
+        } finally {
+            t.stop();
         }
     }
 
     public void resolveArtifact(Artifact artifact) throws ArtifactResolutionException, ArtifactNotFoundException {
         resolveArtifact(artifact, remoteRepositories);
     }
+
+    /**
+     * Locates the given artifact in the local repository, if it's safe to bypass {@link ArtifactResolver}.
+     *
+     * @return
+     *      null if the artifact needs to be resolved in the usual way.
+     */
+    private File findInLocalRepository(Artifact artifact) {
+        if(localRepository==null || artifact.getVersion()==null)
+            return null;
+        // snapshots need the metadata check, and system-scoped artifacts don't live in the repository
+        if(artifact.isSnapshot() || Artifact.SCOPE_SYSTEM.equals(artifact.getScope()))
+            return null;
+        File f = new File(localRepository.getBasedir(),localRepository.pathOf(artifact));
+        if(!f.isFile())
+            return null;
+        return f;
+    }
 }
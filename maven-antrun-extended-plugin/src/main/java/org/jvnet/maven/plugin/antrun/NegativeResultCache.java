@@ -0,0 +1,169 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.maven.artifact.Artifact;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Remembers artifacts that were not found and POMs that failed to build,
+ * so that we don't waste time on remote round-trips and timeouts for them again
+ * until the entry expires. Errors that may go away by themselves, like network ones,
+ * are not recorded. Neither are snapshots, which can be deployed again at any time.
+ * Callers only consult this when the local repository doesn't have what they are looking for,
+ * so that something installed locally after the failure is picked up right away.
+ *
+ * <p>
+ * Entries are persisted in a properties file (typically in the local repository), keyed by
+ * the coordinate and valued by the time of the failure, so that the subsequent builds can
+ * benefit from it, too. Since the lifetime is only applied when the entries are read,
+ * builds with different lifetimes can share the same file.
+ *
+ * @see AntRunMojo
+ */
+final class NegativeResultCache {
+    private final File file;
+    private final long lifetime;
+
+    /**
+     * Coordinate to the time of the failure, as a string.
+     */
+    private final Properties entries = new Properties();
+
+    /**
+     * Coordinates that have since succeeded, so that {@link #save()} doesn't bring them back
+     * from the file.
+     */
+    private final Set<String> removed = new HashSet<String>();
+
+    private boolean dirty;
+
+    /**
+     * @param file
+     *      The file to persist failures in. Loaded right away if it exists.
+     * @param lifetime
+     *      How long a failure is remembered, in milliseconds.
+     */
+    NegativeResultCache(File file, long lifetime) throws IOException {
+        this.file = file;
+        this.lifetime = lifetime;
+        load(entries);
+        expire(entries);
+    }
+
+    /**
+     * Returns true if the given coordinate failed recently.
+     */
+    public synchronized boolean isKnownFailure(String coordinate) {
+        String v = entries.getProperty(coordinate);
+        if(v==null)     return false;
+        if(isExpired(v)) {
+            entries.remove(coordinate);
+            dirty = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that the given coordinate failed just now.
+     */
+    public synchronized void addFailure(String coordinate) {
+        entries.setProperty(coordinate,String.valueOf(System.currentTimeMillis()));
+        removed.remove(coordinate);
+        dirty = true;
+    }
+
+    /**
+     * Records that the given coordinate succeeded, so it's no longer a failure.
+     */
+    public synchronized void removeFailure(String coordinate) {
+        if(entries.remove(coordinate)!=null) {
+            removed.add(coordinate);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the entries back to the file, if anything has changed.
+     *
+     * <p>
+     * Entries written by other builds since we loaded the file are merged in,
+     * so that concurrent builds on the same local repository don't lose each other's failures.
+     */
+    public synchronized void save() throws IOException {
+        if(!dirty)  return;
+
+        Properties merged = new Properties();
+        load(merged);
+        merged.putAll(entries);
+        for (String c : removed)
+            merged.remove(c);
+        expire(merged);
+
+        file.getParentFile().mkdirs();
+        // write to a temporary file first, so that a concurrent reader never sees a partial file
+        File tmp = new File(file.getPath()+".tmp");
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            merged.store(os,"Artifacts and POMs that failed to resolve, and when");
+        } finally {
+            os.close();
+        }
+        if(!tmp.renameTo(file)) {
+            file.delete();
+            if(!tmp.renameTo(file))
+                throw new IOException("Failed to rename "+tmp+" to "+file);
+        }
+        removed.clear();
+        dirty = false;
+    }
+
+    private void load(Properties props) throws IOException {
+        if(!file.exists())  return;
+        InputStream is = new FileInputStream(file);
+        try {
+            props.load(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private void expire(Properties props) {
+        for (Iterator<Map.Entry<Object,Object>> itr = props.entrySet().iterator(); itr.hasNext();) {
+            if(isExpired((String)itr.next().getValue()))
+                itr.remove();
+        }
+    }
+
+    private boolean isExpired(String timestamp) {
+        try {
+            return Long.parseLong(timestamp)+lifetime < System.currentTimeMillis();
+        } catch (NumberFormatException e) {
+            return true;    // corrupted entry
+        }
+    }
+
+    /**
+     * Key for a POM.
+     */
+    static String pomKey(String groupId, String artifactId, String version) {
+        return "pom:"+groupId+':'+artifactId+':'+version;
+    }
+
+    /**
+     * Key for an artifact, which includes its type and classifier.
+     */
+    static String artifactKey(Artifact a) {
+        return "artifact:"+a.getGroupId()+':'+a.getArtifactId()+':'+a.getVersion()+':'+a.getType()+':'+a.getClassifier();
+    }
+}
@@ -19,7 +19,7 @@ public final class PackagingFilter extends ListFilter {
     }
 
     public boolean visit(DependencyGraph.Node node) {
-        String p = node.getProject().getPackaging();
+        String p = node.getPackaging();
         if(packaging!=null && packaging.equals(p))
             return true;    // positive match
         if(packagingNot!=null && !packagingNot.equals(p))
@@ -0,0 +1,108 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the progress of a long batch of work, like resolving or copying hundreds of artifacts.
+ *
+ * <p>
+ * A line is logged at most every {@link #INTERVAL} milliseconds, with how many items are done,
+ * how many bytes went through and how fast, and when the batch is expected to finish.
+ * Once the batch is done, one line sums up the throughput, which is useful to compare builds.
+ *
+ * <p>
+ * {@link #step()} can be called from any thread.
+ */
+final class Progress {
+    private final Task task;
+    /**
+     * Like "Resolving".
+     */
+    private final String activity;
+    /**
+     * Like "artifacts".
+     */
+    private final String unit;
+    /**
+     * Counts the bytes that go through, like {@link Statistics.Counter#BYTES_DOWNLOADED}.
+     */
+    private final Statistics.Counter bytes;
+    /**
+     * Like "downloaded".
+     */
+    private final String bytesVerb;
+    private final Statistics stats;
+
+    private volatile int total;
+    private final AtomicInteger done = new AtomicInteger();
+    private long start, startBytes;
+    private final AtomicLong lastReport = new AtomicLong();
+
+    Progress(Task task, String activity, String unit, Statistics.Counter bytes, String bytesVerb) {
+        this.task = task;
+        this.activity = activity;
+        this.unit = unit;
+        this.bytes = bytes;
+        this.bytesVerb = bytesVerb;
+        this.stats = Statistics.get();
+    }
+
+    /**
+     * Starts a batch of the given number of items.
+     */
+    void begin(int total) {
+        this.total = total;
+        done.set(0);
+        start = System.currentTimeMillis();
+        startBytes = stats.get(bytes);
+        lastReport.set(start);
+    }
+
+    /**
+     * Marks one item done.
+     */
+    void step() {
+        int d = done.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if(now-last<INTERVAL || d>=total || !lastReport.compareAndSet(last,now))
+            return;
+
+        long elapsed = now-start;
+        long eta = elapsed*(total-d)/d;
+        task.log(String.format(Locale.ENGLISH,"%s: %d/%d %s, %s, ETA %s",
+            activity, d, total, unit, throughput(elapsed), duration(eta)), Project.MSG_INFO);
+    }
+
+    /**
+     * Ends the batch, and logs the summary.
+     */
+    void end() {
+        if(total==0)    return;
+        long elapsed = System.currentTimeMillis()-start;
+        task.log(String.format(Locale.ENGLISH,"%s: %d %s in %s, %s",
+            activity, done.get(), unit, duration(elapsed), throughput(elapsed)), Project.MSG_INFO);
+    }
+
+    private String throughput(long elapsed) {
+        double mb = (stats.get(bytes)-startBytes)/(1024.0*1024);
+        return String.format(Locale.ENGLISH,"%.1fMB %s at %.1fMB/s",
+            mb, bytesVerb, elapsed>0 ? mb*1000/elapsed : 0.0);
+    }
+
+    private static String duration(long millis) {
+        long s = (millis+999)/1000;
+        if(s<60)    return s+"s";
+        return (s/60)+"m"+(s%60)+"s";
+    }
+
+    /**
+     * Minimum interval between progress lines, in milliseconds.
+     */
+    static final long INTERVAL = 5000;
+}
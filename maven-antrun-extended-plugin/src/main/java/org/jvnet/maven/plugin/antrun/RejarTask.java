@@ -35,7 +35,12 @@ public class RejarTask extends Jar {
         // and for that we require two passes.
         doubleFilePass = true;
 
-        super.execute();
+        Statistics.Timer t = Statistics.get().start(Statistics.Phase.REJAR,getDestFile().getName());
+        try {
+            super.execute();
+        } finally {
+            t.stop();
+        }
     }
 
     protected void initZipOutputStream(ZipOutputStream zOut) throws IOException, BuildException {
@@ -36,6 +36,20 @@ public class RemoveSpecificArtifactsFilter extends AbstractArtifactsExclusionFil
     public RemoveSpecificArtifactsFilter() {
     }
 
+    /**
+     * What's specific depends on the input graph.
+     */
+    /*package*/ boolean dependsOnInput() {
+        return true;
+    }
+
+    /**
+     * Each visit subtracts the input graph once for each artifact.
+     */
+    /*package*/ int getCost() {
+        return 1000;
+    }
+
     public boolean visit(DependencyGraph.Node node) {
         resolve();
 
@@ -7,14 +7,19 @@ import org.apache.tools.ant.taskdefs.Copy;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.Artifact;
 import org.jvnet.maven.plugin.antrun.DependencyGraph.Node;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Transitively resolve dependencies, perform some filtering first on the graph data model,
@@ -38,6 +43,12 @@ public class ResolveAllTask extends DependencyGraphTask {
 
     private boolean stripVersion;
 
+    private int parallelism = 1;
+
+    private boolean skipMissing;
+
+    private boolean topologicalOrder;
+
     public void setTodir(File todir) {
         this.todir = todir;
         todir.mkdirs();
@@ -66,6 +77,35 @@ public class ResolveAllTask extends DependencyGraphTask {
         this.stripVersion = stripVersion;
     }
 
+    /**
+     * Number of artifacts resolved, and copied, concurrently. Defaults to 1.
+     *
+     * <p>
+     * Artifacts are resolved in bulk before they are copied or added to the path,
+     * and before list filters that need them look at them.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * If true, artifacts that don't exist are silently skipped, instead of failing the build.
+     * This is normally used with {@link #setClassifier(String)}, as not all modules have
+     * source jars, for example.
+     */
+    public void setSkipMissing(boolean skipMissing) {
+        this.skipMissing = skipMissing;
+    }
+
+    /**
+     * If true, artifacts are put in the path, and copied, in the dependency order.
+     * That is, every artifact comes after all the artifacts that it depends on.
+     * Otherwise they are in the order of their IDs.
+     */
+    public void setTopologicalOrder(boolean topologicalOrder) {
+        this.topologicalOrder = topologicalOrder;
+    }
+
     /**
      * Adds a {@link GraphFilter} child. Ant will invoke this for each child element given in build script.
      */
@@ -86,28 +126,56 @@ public class ResolveAllTask extends DependencyGraphTask {
 
         // first graph filtering
         DependencyGraph g = buildGraph(filter);
-        List<Node> nodes = new ArrayList<Node>(g.getAllNodes());
+        List<Node> nodes;
+        try {
+            nodes = new ArrayList<Node>(topologicalOrder ? g.getTopologicalOrder() : g.getAllNodes());
+        } catch (IllegalStateException e) {
+            throw new BuildException(e.getMessage(),e);
+        }
 
         // further trim down the list by list filtering
         final DependencyGraph old = GraphFilter.CURRENT_INPUT.get();
         GraphFilter.CURRENT_INPUT.set(g);
         try {
-            for (ListFilter listFilter : listFilters) {
-                for (Iterator<Node> itr = nodes.iterator(); itr.hasNext();)
-                    if(!listFilter.visit(itr.next()))
-                        itr.remove();
-            }
+            nodes = applyListFilters(g,nodes);
         } finally {
             GraphFilter.CURRENT_INPUT.set(old);
         }
 
 
+        // resolve everything in one go, rather than one by one
+        Map<Node,File> classified = null;
+        if(pathId!=null || todir!=null) {
+            if(classifier==null) {
+                DependencyGraph.Resolution r = g.resolveAll(nodes,parallelism,
+                    new Progress(this,"Resolving","artifacts",Statistics.Counter.BYTES_DOWNLOADED,"downloaded"));
+                Set<Node> missing = new HashSet<Node>();
+                for (Map.Entry<Node,Exception> e : r.getFailures().entrySet()) {
+                    if(skipMissing && e.getValue() instanceof ArtifactNotFoundException) {
+                        log("Skipping missing "+e.getKey(),Project.MSG_VERBOSE);
+                        missing.add(e.getKey());
+                    } else
+                        throw new BuildException("Failed to resolve artifact. Trail="+e.getKey().getTrail(g),e.getValue());
+                }
+                if(!missing.isEmpty()) {
+                    // one pass over the list, instead of one per missing artifact
+                    List<Node> found = new ArrayList<Node>(nodes.size()-missing.size());
+                    for (Node n : nodes)
+                        if(!missing.contains(n))
+                            found.add(n);
+                    nodes = found;
+                }
+            } else {
+                classified = resolveClassifiers(g,nodes);
+            }
+        }
+
         if(pathId!=null) {
             // collect all artifacts into a path and export
             Path path = new Path(getProject());
             for (Node n : nodes) {
                 try {
-                    File f = resolve(n);
+                    File f = resolve(n,classified);
                     if(f!=null)
                     path.createPathElement().setLocation(f);
                 } catch (AbstractArtifactResolutionException e) {
@@ -120,25 +188,32 @@ public class ResolveAllTask extends DependencyGraphTask {
         }
 
         if(todir!=null) {
-            boolean hasSomethingToCopy=false;
-            for (Node n : nodes) {
+            List<Runnable> copies = new ArrayList<Runnable>();
+            // copies to the same file need to happen one by one, in order
+            Set<String> names = new HashSet<String>();
+            boolean sameName = false;
+            for (final Node n : nodes) {
                 try {
-                    File f = resolve(n);
+                    final File f = resolve(n,classified);
                     if(f!=null) {
-                        // copy files to the specified target directory.
-                        // use the <copy> task implementation to do up-to-date check.
-                        Copy cp = new Copy();
-                        cp.setTaskName(getTaskName());
-                        cp.setProject(getProject());
-                        cp.setTodir(todir);
-                        if (stripVersion) {
-                            cp.add(new VersionStripper(n.version));
-                        }
-                        FileSet fs = new FileSet();
-                        fs.setFile(f);
-                        cp.addFileset(fs);
-                        cp.execute();
-                        hasSomethingToCopy=true;
+                        sameName |= !names.add(stripVersion ? new VersionStripper(n.version).mapFileName(f.getName())[0] : f.getName());
+                        copies.add(new Runnable() {
+                            public void run() {
+                                // copy files to the specified target directory.
+                                // use the <copy> task implementation to do up-to-date check.
+                                Copy cp = new Copy();
+                                cp.setTaskName(getTaskName());
+                                cp.setProject(getProject());
+                                cp.setTodir(todir);
+                                if (stripVersion) {
+                                    cp.add(new VersionStripper(n.version));
+                                }
+                                FileSet fs = new FileSet();
+                                fs.setFile(f);
+                                cp.addFileset(fs);
+                                copy(cp,f);
+                            }
+                        });
                     }
                 } catch (AbstractArtifactResolutionException e) {
                     throw new BuildException("Failed to resolve artifact. Trail="+n.getTrail(g),e);
@@ -147,22 +222,198 @@ public class ResolveAllTask extends DependencyGraphTask {
                 }
             }
 
-            if(!hasSomethingToCopy)
+            if(copies.isEmpty())
                 log("Nothing to copy",Project.MSG_INFO);
+            Progress progress = new Progress(this,"Copying","files",Statistics.Counter.BYTES_COPIED,"copied");
+            progress.begin(copies.size());
+            if(!Workers.run(stepping(copies,progress),sameName ? 1 : parallelism))
+                throw new BuildException("Interrupted while copying artifacts");
+            progress.end();
         }
 
         log("Exiting ResolveAllTasks.execute ", Project.MSG_DEBUG);
     }
 
-    private File resolve(Node n) throws AbstractArtifactResolutionException, IOException {
+    /**
+     * Applies {@link #listFilters} to the given nodes.
+     *
+     * <p>
+     * All the list filters look at the same input graph, so the order they are applied in doesn't
+     * change the result. Cheaper filters go first, and filters of the same cost are checked in
+     * one pass that stops at the first filter rejecting a node, so expensive filters only see
+     * the nodes that all the cheaper ones accepted.
+     */
+    private List<Node> applyListFilters(DependencyGraph g, List<Node> nodes) {
+        List<ListFilter> filters = new ArrayList<ListFilter>(listFilters);
+        Collections.sort(filters,ListFilter.BY_COST);
+
+        for (int i=0; i<filters.size(); ) {
+            int j=i+1;
+            while(j<filters.size() && filters.get(j).getCost()==filters.get(i).getCost())
+                j++;
+            nodes = applyListFilters(g,filters.subList(i,j),nodes);
+            i=j;
+        }
+        return nodes;
+    }
+
+    /**
+     * Applies the given list filters in one pass, in parallel if they all allow it.
+     *
+     * @return
+     *      Nodes that all the filters accepted, in the same order.
+     */
+    private List<Node> applyListFilters(DependencyGraph g, final List<ListFilter> filters, final List<Node> nodes) {
+        StringBuilder name = new StringBuilder();
+        boolean threadSafe = true;
+        for (ListFilter f : filters) {
+            if(name.length()>0)     name.append('+');
+            name.append(f.getClass().getSimpleName());
+            threadSafe &= f.isThreadSafe();
+        }
+
+        Statistics.Timer t = Statistics.get().start(Statistics.Phase.FILTER,name.toString())
+            .arg("inputNodes",nodes.size());
+        try {
+            for (ListFilter f : filters)
+                f.prepare(g,nodes,parallelism);
+
+            final boolean[] accepted = new boolean[nodes.size()];
+            if(threadSafe && parallelism>1) {
+                List<Runnable> jobs = new ArrayList<Runnable>(nodes.size());
+                for (int i=0; i<nodes.size(); i++) {
+                    final int index = i;
+                    jobs.add(new Runnable() {
+                        public void run() {
+                            accepted[index] = accepts(filters,nodes.get(index));
+                        }
+                    });
+                }
+                if(!Workers.run(jobs,parallelism))
+                    throw new BuildException("Interrupted while filtering artifacts");
+            } else {
+                for (int i=0; i<nodes.size(); i++)
+                    accepted[i] = accepts(filters,nodes.get(i));
+            }
+
+            List<Node> r = new ArrayList<Node>(nodes.size());
+            for (int i=0; i<accepted.length; i++)
+                if(accepted[i])
+                    r.add(nodes.get(i));
+            t.arg("outputNodes",r.size());
+            return r;
+        } finally {
+            t.stop();
+        }
+    }
+
+    private static boolean accepts(List<ListFilter> filters, Node n) {
+        for (ListFilter f : filters)
+            if(!f.visit(n))
+                return false;
+        return true;
+    }
+
+    /**
+     * Wraps jobs so that each of them counts as a step of the given progress when it completes.
+     */
+    private static List<Runnable> stepping(List<Runnable> jobs, final Progress progress) {
+        List<Runnable> r = new ArrayList<Runnable>(jobs.size());
+        for (final Runnable job : jobs) {
+            r.add(new Runnable() {
+                public void run() {
+                    try {
+                        job.run();
+                    } finally {
+                        progress.step();
+                    }
+                }
+            });
+        }
+        return r;
+    }
+
+    /**
+     * Executes the given copy task, while recording statistics.
+     */
+    static void copy(Copy cp, File src) {
+        Statistics stats = Statistics.get();
+        Statistics.Timer t = stats.start(Statistics.Phase.COPY,src.getName());
+        try {
+            cp.execute();
+            stats.add(Statistics.Counter.BYTES_COPIED,src.length());
+            t.arg("bytes",src.length());
+        } finally {
+            t.stop();
+        }
+    }
+
+    /**
+     * @param classified
+     *      Files of the classifier artifacts computed by {@link #resolveClassifiers(DependencyGraph, List)}.
+     */
+    private File resolve(Node n, Map<Node,File> classified) throws AbstractArtifactResolutionException, IOException {
         if(classifier==null)
             return n.getArtifactFile();
+        return classified.get(n);
+    }
 
+    /**
+     * Resolves the {@link #classifier} artifacts of all the given nodes, possibly in parallel.
+     *
+     * <p>
+     * Most of the time here goes to looking for classifiers that don't exist, so it pays
+     * to do them concurrently. {@link MavenComponentBag} remembers missing artifacts, so
+     * subsequent tasks looking for the same classifier don't pay that cost again.
+     *
+     * @return
+     *      Files of the resolved artifacts. Nodes whose artifacts are missing are not in the map
+     *      if {@link #skipMissing} is true.
+     */
+    private Map<Node,File> resolveClassifiers(DependencyGraph g, List<Node> nodes) {
         final MavenComponentBag w = MavenComponentBag.get();
+        final Map<Node,File> files = new ConcurrentHashMap<Node,File>();
+        final Map<Node,Exception> failures = new ConcurrentHashMap<Node,Exception>();
+
+        List<Runnable> jobs = new ArrayList<Runnable>(nodes.size());
+        for (final Node n : nodes) {
+            jobs.add(new Runnable() {
+                public void run() {
+                    try {
+                        File f = resolveClassifier(w,n);
+                        if(f!=null)
+                            files.put(n,f);
+                    } catch (Exception e) {
+                        failures.put(n,e);
+                    }
+                }
+            });
+        }
+        Progress progress = new Progress(this,"Resolving "+classifier,"artifacts",Statistics.Counter.BYTES_DOWNLOADED,"downloaded");
+        progress.begin(jobs.size());
+        if(!Workers.run(stepping(jobs,progress),parallelism))
+            throw new BuildException("Interrupted while resolving "+classifier+" artifacts");
+        progress.end();
+
+        // report failures in the order of nodes
+        for (Node n : nodes) {
+            Exception e = failures.get(n);
+            if(e==null)     continue;
+            if(skipMissing && e instanceof ArtifactNotFoundException)
+                log("Skipping missing "+classifier+" of "+n,Project.MSG_VERBOSE);
+            else
+                throw new BuildException("Failed to resolve artifact. Trail="+n.getTrail(g),e);
+        }
+        return files;
+    }
+
+    private File resolveClassifier(MavenComponentBag w, Node n) throws AbstractArtifactResolutionException {
         Artifact a = w.factory.createArtifactWithClassifier(n.groupId, n.artifactId, n.version, n.type, classifier);
         List remoteRepos=null;
-        if(n.getProject()!=null)
-            remoteRepos = n.getProject().getRemoteArtifactRepositories();
+        if(isOffline())
+            remoteRepos = Collections.EMPTY_LIST;
+        else
+            remoteRepos = n.getDeclaredRepositories();
         w.resolveArtifact(a,remoteRepos);
         return a.getFile();
     }
@@ -78,7 +78,7 @@ public class ResolveArtifactTask extends Task {
                 cp.setProject(getProject());
                 cp.setFile(a.getFile());
                 cp.setTofile(tofile);
-                cp.execute();
+                ResolveAllTask.copy(cp,a.getFile());
             }
 
             if(todir!=null) {
@@ -87,7 +87,7 @@ public class ResolveArtifactTask extends Task {
                 cp.setProject(getProject());
                 cp.setFile(a.getFile());
                 cp.setTodir(todir);
-                cp.execute();
+                ResolveAllTask.copy(cp,a.getFile());
             }
         } catch (Throwable ex) {
             log("Problem resolving artifact: "+ex.getMessage(), Project.MSG_ERR);
@@ -34,6 +34,10 @@ public final class ScopeFilter extends GraphFilter implements GraphVisitor {
             scopes.add(tokens.nextToken().trim());
     }
 
+    /*package*/ Set<String> getScopes() {
+        return scopes;
+    }
+
     public DependencyGraph process() {
         // Create a subgraph of the dependencyGraph by using this class as a 
         // GraphVisitor.
@@ -0,0 +1,431 @@
+package org.jvnet.maven.plugin.antrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records where the time went during an execution of the plugin.
+ *
+ * <p>
+ * Time is accounted per {@link Phase}. Phases nest &mdash; for example, filtering
+ * can trigger artifact resolution &mdash; and the time of a nested phase is only
+ * charged to that nested phase, so that the numbers of all the phases add up to the total.
+ * The same goes for the allocation estimates, which are only available on JVMs that
+ * can report per-thread allocations, and only recorded while {@linkplain #enableTrace() tracing},
+ * as sampling them costs a reflective call at every start and stop.
+ *
+ * <p>
+ * Use it like this:
+ * <pre>
+ * Statistics.Timer t = Statistics.get().start(Phase.RESOLVE);
+ * try {
+ *     ...
+ * } finally {
+ *     t.stop();
+ * }
+ * </pre>
+ *
+ * <p>
+ * When {@linkplain #enableTrace() tracing is enabled}, every timer also becomes an event
+ * in the Chrome trace-event format, which can be opened in <tt>chrome://tracing</tt> or
+ * a similar viewer to see which artifacts and filters are the bottleneck.
+ */
+final class Statistics {
+    enum Phase {
+        GRAPH("building graphs"),
+        POM("parsing POMs"),
+        RESOLVE("resolving artifacts"),
+        FILTER("filtering graphs"),
+        COPY("copying files"),
+        REJAR("rejarring");
+
+        final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    enum Counter {
+        POMS_BUILT("POMs built"),
+        POMS_REUSED("POMs reused"),
+        POMS_UNCHANGED("POMs unchanged since the previous graph"),
+        ARTIFACTS_RESOLVED("artifacts resolved"),
+        LOCAL_REPOSITORY_HITS("local repository hits"),
+        BYTES_DOWNLOADED("bytes downloaded"),
+        BYTES_COPIED("bytes copied"),
+        SUBGRAPHS_CREATED("subgraphs created");
+
+        final String displayName;
+
+        Counter(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    private final AtomicLongArray nanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray calls = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray allocated = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * Innermost running {@link Timer} of the current thread.
+     */
+    private final ThreadLocal<Timer> current = new ThreadLocal<Timer>();
+
+    /**
+     * Completed trace events in the JSON format, or null if tracing is disabled.
+     */
+    private volatile Queue<String> trace;
+
+    /**
+     * Names of the threads that appear in {@link #trace}, keyed by their IDs.
+     */
+    private final Map<Long,String> threadNames = new ConcurrentHashMap<Long,String>();
+
+    /**
+     * All the timestamps in the trace are relative to this.
+     */
+    private final long origin = System.nanoTime();
+
+    /**
+     * Measures one execution of a {@link Phase}.
+     */
+    final class Timer {
+        private final Phase phase;
+        private final String name;
+        private final Timer parent;
+        /**
+         * Additional information about this event for the trace. Lazily created.
+         */
+        private Map<String,Object> args;
+        private final long start = System.nanoTime();
+        private final long startAllocated = isMeasuringAllocations() ? allocatedBytes() : -1;
+        /**
+         * Time and allocation that are already charged to nested phases.
+         */
+        private long childNanos, childAllocated;
+
+        private Timer(Phase phase, String name, Timer parent) {
+            this.phase = phase;
+            this.name = name;
+            this.parent = parent;
+        }
+
+        /**
+         * Attaches additional information to the trace event of this timer.
+         * No-op unless tracing is enabled.
+         */
+        public Timer arg(String key, Object value) {
+            if(trace!=null) {
+                if(args==null)
+                    args = new HashMap<String,Object>();
+                args.put(key,value);
+            }
+            return this;
+        }
+
+        public void stop() {
+            long elapsed = System.nanoTime()-start;
+            long alloc = startAllocated<0 ? 0 : allocatedBytes()-startAllocated;
+
+            int i = phase.ordinal();
+            nanos.addAndGet(i,elapsed-childNanos);
+            allocated.addAndGet(i,alloc-childAllocated);
+            calls.incrementAndGet(i);
+
+            if(parent!=null) {
+                parent.childNanos += elapsed;
+                parent.childAllocated += alloc;
+            }
+            current.set(parent);
+
+            Queue<String> trace = Statistics.this.trace;
+            if(trace!=null)
+                trace.add(toEvent(elapsed));
+        }
+
+        private String toEvent(long elapsed) {
+            Thread th = Thread.currentThread();
+            if(!threadNames.containsKey(th.getId()))
+                threadNames.put(th.getId(),th.getName());
+
+            StringBuilder buf = new StringBuilder("{\"name\":");
+            quote(buf, name!=null ? name : phase.displayName);
+            buf.append(",\"cat\":\"").append(jsonName(phase)).append('"');
+            buf.append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(th.getId());
+            buf.append(",\"ts\":").append((start-origin)/1000);
+            buf.append(",\"dur\":").append(elapsed/1000);
+            if(args!=null) {
+                buf.append(",\"args\":{");
+                boolean first = true;
+                for (Map.Entry<String,Object> e : args.entrySet()) {
+                    if(!first)  buf.append(',');
+                    first = false;
+                    quote(buf,e.getKey());
+                    buf.append(':');
+                    Object v = e.getValue();
+                    if(v instanceof Number)
+                        buf.append(v);
+                    else
+                        quote(buf,String.valueOf(v));
+                }
+                buf.append('}');
+            }
+            return buf.append('}').toString();
+        }
+    }
+
+    /**
+     * Starts measuring a phase. The returned {@link Timer} must be stopped from the same thread.
+     */
+    public Timer start(Phase phase) {
+        return start(phase,null);
+    }
+
+    /**
+     * Starts measuring a phase, and names the event in the trace.
+     * For example, the name of a resolved artifact.
+     */
+    public Timer start(Phase phase, String name) {
+        Timer t = new Timer(phase,name,current.get());
+        current.set(t);
+        return t;
+    }
+
+    /**
+     * Attaches additional information to the innermost running timer of the current thread.
+     *
+     * @see Timer#arg(String, Object)
+     */
+    public void arg(String key, Object value) {
+        Timer t = current.get();
+        if(t!=null)
+            t.arg(key,value);
+    }
+
+    /**
+     * Returns true if {@link #enableTrace() tracing is enabled}. Callers can use this
+     * to avoid computing expensive event names and arguments that nobody will see.
+     */
+    public boolean isTracing() {
+        return trace!=null;
+    }
+
+    /**
+     * Starts recording every timer as a trace event, in addition to the summary numbers.
+     * Allocations are estimated from then on, too.
+     */
+    public void enableTrace() {
+        if(trace==null)
+            trace = new ConcurrentLinkedQueue<String>();
+    }
+
+    /**
+     * Returns true if timers estimate the allocations of their phases.
+     */
+    private boolean isMeasuringAllocations() {
+        return trace!=null && ALLOCATED_BYTES!=null;
+    }
+
+    public void increment(Counter c) {
+        add(c,1);
+    }
+
+    public void add(Counter c, long n) {
+        counters.addAndGet(c.ordinal(),n);
+    }
+
+    public long get(Counter c) {
+        return counters.get(c.ordinal());
+    }
+
+    /**
+     * Returns true if nothing has been recorded.
+     */
+    public boolean isEmpty() {
+        for( int i=0; i<calls.length(); i++ )
+            if(calls.get(i)!=0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Human readable summary, one line per phase and one line for all the counters.
+     */
+    public String getSummary() {
+        StringBuilder buf = new StringBuilder("Statistics of antrun-extended tasks:");
+        for (Phase p : Phase.values()) {
+            int i = p.ordinal();
+            if(calls.get(i)==0)     continue;
+            buf.append(String.format(Locale.ENGLISH,"%n  %-20s %8dms %6d calls",
+                p.displayName, nanos.get(i)/1000000, calls.get(i)));
+            if(isMeasuringAllocations())
+                buf.append(String.format(Locale.ENGLISH," %10.1fMB allocated",allocated.get(i)/(1024.0*1024)));
+        }
+        buf.append(String.format("%n "));
+        for (Counter c : Counter.values())
+            buf.append(' ').append(c.displayName).append('=').append(get(c));
+        return buf.toString();
+    }
+
+    /**
+     * Writes all the numbers as a JSON object.
+     */
+    public void writeJson(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent!=null)
+            parent.mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(file),"UTF-8");
+        try {
+            w.write("{\n  \"phases\": {");
+            boolean first = true;
+            for (Phase p : Phase.values()) {
+                int i = p.ordinal();
+                w.write(first ? "\n" : ",\n");
+                first = false;
+                w.write("    \""+jsonName(p)+"\": {\"calls\": "+calls.get(i)+", \"millis\": "+nanos.get(i)/1000000);
+                if(isMeasuringAllocations())
+                    w.write(", \"allocatedBytes\": "+allocated.get(i));
+                w.write("}");
+            }
+            w.write("\n  },\n  \"counters\": {");
+            first = true;
+            for (Counter c : Counter.values()) {
+                w.write(first ? "\n" : ",\n");
+                first = false;
+                w.write("    \""+jsonName(c)+"\": "+get(c));
+            }
+            w.write("\n  }\n}\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Writes all the recorded events in the Chrome trace-event format.
+     */
+    public void writeTrace(File file) throws IOException {
+        if(trace==null)
+            throw new IllegalStateException("Tracing is not enabled");
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent!=null)
+            parent.mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(file),"UTF-8");
+        try {
+            w.write("{\"traceEvents\":[");
+            boolean first = true;
+            for (Map.Entry<Long,String> e : threadNames.entrySet()) {
+                StringBuilder buf = new StringBuilder(first ? "\n" : ",\n");
+                first = false;
+                buf.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(e.getKey());
+                buf.append(",\"args\":{\"name\":");
+                quote(buf,e.getValue());
+                w.write(buf.append("}}").toString());
+            }
+            for (String event : trace) {
+                w.write(first ? "\n" : ",\n");
+                first = false;
+                w.write(event);
+            }
+            w.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    private static void quote(StringBuilder buf, String s) {
+        buf.append('"');
+        for( int i=0; i<s.length(); i++ ) {
+            char ch = s.charAt(i);
+            switch (ch) {
+            case '"':   buf.append("\\\"");  break;
+            case '\\':  buf.append("\\\\"); break;
+            case '\n':  buf.append("\\n");   break;
+            case '\r':  buf.append("\\r");   break;
+            case '\t':  buf.append("\\t");   break;
+            default:
+                if(ch<0x20)
+                    buf.append(String.format("\\u%04x",(int)ch));
+                else
+                    buf.append(ch);
+            }
+        }
+        buf.append('"');
+    }
+
+    /**
+     * Converts "ARTIFACTS_RESOLVED" to "artifactsResolved".
+     */
+    private static String jsonName(Enum e) {
+        StringBuilder buf = new StringBuilder();
+        boolean upper = false;
+        for (char ch : e.name().toCharArray()) {
+            if(ch=='_') {
+                upper = true;
+                continue;
+            }
+            buf.append(upper ? ch : Character.toLowerCase(ch));
+            upper = false;
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Gets the {@link Statistics} of the current execution.
+     * If called outside an execution, returns an instance that nobody reads from.
+     */
+    public static Statistics get() {
+        MavenComponentBag bag = MavenComponentBag.get();
+        if(bag==null)   return DETACHED;
+        return bag.statistics;
+    }
+
+    private static final Statistics DETACHED = new Statistics();
+
+    /**
+     * Bytes allocated by the current thread so far, or -1 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        if(ALLOCATED_BYTES==null)   return -1;
+        try {
+            return (Long)ALLOCATED_BYTES.invoke(THREAD_BEAN,Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static final Object THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * <tt>com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)</tt>, if available.
+     * Looked up reflectively because this is not a part of the standard API.
+     */
+    private static final Method ALLOCATED_BYTES;
+
+    static {
+        Method m = null;
+        try {
+            Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+            if(c.isInstance(THREAD_BEAN)) {
+                m = c.getMethod("getThreadAllocatedBytes",long.class);
+                m.invoke(THREAD_BEAN,Thread.currentThread().getId());   // make sure it works
+            }
+        } catch (Throwable t) {
+            m = null;   // not available on this JVM
+        }
+        ALLOCATED_BYTES = m;
+    }
+}
@@ -17,6 +17,8 @@ import java.util.ArrayList;
 public class VisualizeFilter extends GraphFilter {
     private File output;
 
+    private boolean cluster;
+
     private final List<Subgraph> subGraphs = new ArrayList<Subgraph>();
 
     /**
@@ -26,6 +28,13 @@ public class VisualizeFilter extends GraphFilter {
         this.output = output;
     }
 
+    /**
+     * If true, artifacts of the same groupId are drawn together in a box.
+     */
+    public void setCluster(boolean cluster) {
+        this.cluster = cluster;
+    }
+
     public void addConfiguredSubgraph(Subgraph g) {
         subGraphs.add(g);
     }
@@ -35,11 +44,12 @@ public class VisualizeFilter extends GraphFilter {
 
         try {
             GraphVizVisualizer viz = GraphVizVisualizer.createPng(output);
+            viz.setClusterByGroupId(cluster);
 
             for (Subgraph subGraph : subGraphs)
                 viz.addColoredSubgraph( subGraph.process(), subGraph.color);
 
-            g.accept(viz);
+            viz.write(g);
             viz.close();
         } catch (IOException e) {
             // report an error, but don't let this fail the build, so that it can still
@@ -0,0 +1,188 @@
+package org.jvnet.maven.plugin.antrun;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of independent jobs, such as artifact resolutions, possibly in parallel.
+ * All the parallel work of the plugin goes through here.
+ *
+ * <p>
+ * The jobs are mostly blocking I/O, so on JDKs that have virtual threads (21 and later),
+ * each job gets its own virtual thread, and a high parallelism costs next to nothing.
+ * Otherwise jobs run on a pool of platform threads, which is capped at {@link #MAX_PLATFORM_THREADS}
+ * regardless of the requested parallelism. Virtual threads can be disabled with
+ * <tt>-Dantrun.virtualThreads=false</tt>.
+ */
+final class Workers {
+    private Workers() {}
+
+    /**
+     * Upper bound of the platform threads a batch uses, so that a large parallelism
+     * doesn't exhaust the system when virtual threads aren't available.
+     */
+    static final int MAX_PLATFORM_THREADS = Integer.getInteger("antrun.maxThreads",64);
+
+    /**
+     * Runs all the given jobs and waits for them to complete.
+     *
+     * <p>
+     * Jobs are expected to record their own failures. If a job throws an exception anyway,
+     * it's rethrown from here after all the other jobs have completed.
+     *
+     * @param parallelism
+     *      Maximum number of jobs that run concurrently. 1 or less to run everything
+     *      in the calling thread.
+     * @return
+     *      false if the calling thread was interrupted before all the jobs completed.
+     *      The interrupted status is preserved.
+     */
+    static boolean run(List<? extends Runnable> jobs, int parallelism) {
+        if(parallelism<=1 || jobs.size()<=1) {
+            for (Runnable job : jobs)
+                job.run();
+            return true;
+        }
+
+        int threads = Math.min(parallelism,jobs.size());
+        ExecutorService es = newVirtualThreadExecutor();
+        // virtual threads are created for all the jobs at once, so they need to take turns
+        Semaphore permits = es!=null ? new Semaphore(threads) : null;
+        if(es==null)
+            es = Executors.newFixedThreadPool(Math.min(threads,MAX_PLATFORM_THREADS),PLATFORM_THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(jobs.size());
+            for (Runnable job : jobs) {
+                job = inContext(job);
+                if(permits!=null)
+                    job = throttled(job,permits);
+                futures.add(es.submit(job));
+            }
+            Throwable failure = null;
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if(failure==null)
+                        failure = e.getCause();
+                }
+            }
+            if(failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            if(failure instanceof Error)
+                throw (Error)failure;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    /**
+     * Wraps a job so that it only runs while it holds a permit.
+     */
+    private static Runnable throttled(final Runnable job, final Semaphore permits) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    // the batch is aborted
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    job.run();
+                } finally {
+                    permits.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each job.
+     *
+     * @return
+     *      null if virtual threads are not available.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        if(VIRTUAL_THREADS==null)
+            return null;
+        try {
+            return (ExecutorService)NEW_THREAD_PER_TASK_EXECUTOR.invoke(null,VIRTUAL_THREADS);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static final ThreadFactory PLATFORM_THREADS = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,"antrun-worker-"+count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    /**
+     * Factory of virtual threads, and {@code Executors.newThreadPerTaskExecutor(ThreadFactory)}.
+     * Looked up reflectively, as we need to run on older JDKs. Null if not available.
+     */
+    private static final ThreadFactory VIRTUAL_THREADS;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        ThreadFactory f = null;
+        Method m = null;
+        if(!"false".equals(System.getProperty("antrun.virtualThreads"))) {
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object b = Thread.class.getMethod("ofVirtual").invoke(null);
+                b = builder.getMethod("name",String.class,long.class).invoke(b,"antrun-worker-",1L);
+                f = (ThreadFactory)builder.getMethod("factory").invoke(b);
+                m = Executors.class.getMethod("newThreadPerTaskExecutor",ThreadFactory.class);
+            } catch (Exception e) {
+                // pre-21 JDK
+                f = null;
+                m = null;
+            }
+        }
+        VIRTUAL_THREADS = f;
+        NEW_THREAD_PER_TASK_EXECUTOR = m;
+    }
+
+    /**
+     * Wraps a job so that it runs with the same {@link MavenComponentBag} and
+     * {@linkplain GraphFilter#CURRENT_INPUT current input graph} as the calling thread,
+     * as tasks and filters look for them in thread locals.
+     */
+    private static Runnable inContext(final Runnable job) {
+        final MavenComponentBag bag = MavenComponentBag.get();
+        final DependencyGraph input = GraphFilter.CURRENT_INPUT.get();
+        return new Runnable() {
+            public void run() {
+                DependencyGraph old = GraphFilter.CURRENT_INPUT.get();
+                GraphFilter.CURRENT_INPUT.set(input);
+                try {
+                    if(bag!=null)
+                        bag.runInContext(job);
+                    else
+                        job.run();
+                } finally {
+                    GraphFilter.CURRENT_INPUT.set(old);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,158 @@
+package org.jvnet.maven.plugin.antrun;
+
+import junit.framework.TestCase;
+import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Edge;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Node;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests {@link DependencyGraph#write(java.io.Writer)} and {@link DependencyGraph#read(java.io.Reader, boolean)}.
+ */
+public class DependencyGraphFormatTest extends TestCase {
+    private StubRepository repo;
+    private MavenComponentBag bag;
+
+    protected void setUp() throws Exception {
+        repo = new StubRepository();
+        repo.add("test","a","1","test:b:1","test:c:1:test");
+        repo.add("test","b","1","test:c:1:runtime");
+        repo.add("test","c","1");
+        bag = repo.createBag(repo.add("test","root","1","test:a:1"));
+    }
+
+    protected void tearDown() throws Exception {
+        MavenComponentBag.reset();
+        repo.dispose();
+    }
+
+    public void testRoundTrip() throws Exception {
+        DependencyGraph g = new DependencyGraph(bag.project.getArtifact(),false);
+        String text = write(g);
+        DependencyGraph r = read(text,false);
+
+        assertEquals(g.getRoot().getId(),r.getRoot().getId());
+        assertEquals(describe(g),describe(r));
+        // and it's written back the same way
+        assertEquals(text,write(r));
+    }
+
+    /**
+     * Values that look like separators or nulls survive the round trip.
+     */
+    public void testEscaping() throws Exception {
+        String[] versions = {"-", "1\t2", "1\n2", "1\\t", "\\-"};
+        String[] deps = new String[versions.length];
+        for (int i=0; i<versions.length; i++) {
+            repo.add("test","v"+i,versions[i]);
+            deps[i] = "test:v"+i+":"+versions[i];
+        }
+        bag = repo.createBag(repo.add("test","root","1",deps));
+
+        DependencyGraph g = new DependencyGraph(bag.project.getArtifact(),false);
+        String text = write(g);
+        // header, then a node line for each module, and a dep line and an edge line for each dependency
+        assertEquals(1+(versions.length+1)+2*versions.length,text.split("\n").length);
+
+        DependencyGraph r = read(text,false);
+        for (int i=0; i<versions.length; i++) {
+            Node n = find(r,"v"+i);
+            assertEquals(versions[i],n.version);
+            assertNull(n.classifier);
+        }
+        assertEquals(describe(g),describe(r));
+    }
+
+    /**
+     * Nodes of a graph read offline don't go to remote repositories.
+     */
+    public void testOffline() throws Exception {
+        String text = write(new DependencyGraph(bag.project.getArtifact(),false));
+
+        resolve(find(read(text,true),"c"));
+        assertTrue(repo.resolutions.get(repo.resolutions.size()-1).isEmpty());
+
+        resolve(find(read(text,false),"c"));
+        assertFalse(repo.resolutions.get(repo.resolutions.size()-1).isEmpty());
+    }
+
+    /**
+     * Only the current format is read.
+     */
+    public void testUnknownVersion() throws Exception {
+        String text = write(new DependencyGraph(bag.project.getArtifact(),false));
+        try {
+            read(text.replaceFirst("graph 1","graph 2"),false);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Lines with missing fields are rejected, rather than read with some values left out.
+     */
+    public void testMalformedLine() throws Exception {
+        String text = write(new DependencyGraph(bag.project.getArtifact(),false));
+        try {
+            read(text+"edge\t0\n",false);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testNotAGraph() {
+        try {
+            read("hello\n",false);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static String write(DependencyGraph g) throws IOException {
+        StringWriter w = new StringWriter();
+        g.write(w);
+        return w.toString();
+    }
+
+    private static DependencyGraph read(String text, boolean offline) throws IOException {
+        return DependencyGraph.read(new StringReader(text),offline);
+    }
+
+    private static Node find(DependencyGraph g, String artifactId) {
+        for (Node n : g.getAllNodes())
+            if(n.artifactId.equals(artifactId))
+                return n;
+        throw new AssertionError(artifactId+" is not in "+g);
+    }
+
+    private static void resolve(Node n) {
+        try {
+            n.getArtifactFile();
+        } catch (AbstractArtifactResolutionException e) {
+            // the stub repository doesn't have anything offline
+        }
+    }
+
+    /**
+     * Describes the nodes and edges of the given graph, in a way that doesn't depend on the order.
+     */
+    private static Set<String> describe(DependencyGraph g) {
+        Set<String> r = new TreeSet<String>();
+        for (Node n : g.getAllNodes()) {
+            r.add(n.getId()+' '+n.version+' '+n.type+' '+n.getPackaging()+' '+n.getExclusions());
+            List<Edge> edges = n.getForwardEdges(g);
+            for (Edge e : edges)
+                r.add(e.toString());
+        }
+        return r;
+    }
+}
@@ -0,0 +1,154 @@
+package org.jvnet.maven.plugin.antrun;
+
+import junit.framework.TestCase;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Edge;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Node;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests that {@link FilterPlan} evaluates filter trees to the same graphs as evaluating
+ * one filter at a time does.
+ */
+public class FilterPlanTest extends TestCase {
+    private StubRepository repo;
+    private DependencyGraph input;
+
+    /**
+     * <pre>
+     * root -compile-> x:a -test-> y:b -compile-> x:c
+     * root -runtime-> y:d -compile-> x:e
+     * root -test----> x:f -compile-> x:c
+     * </pre>
+     */
+    protected void setUp() throws Exception {
+        repo = new StubRepository();
+        repo.add("x","a","1","y:b:1:test");
+        repo.add("y","b","1","x:c:1");
+        repo.add("x","c","1");
+        repo.add("y","d","1","x:e:1");
+        repo.add("x","e","1");
+        repo.add("x","f","1","x:c:1");
+        MavenComponentBag bag = repo.createBag(repo.add("x","root","1","x:a:1","y:d:1:runtime","x:f:1:test"));
+        input = new DependencyGraph(bag.project.getArtifact(),false);
+        GraphFilter.CURRENT_INPUT.set(input);
+    }
+
+    protected void tearDown() throws Exception {
+        GraphFilter.CURRENT_INPUT.remove();
+        MavenComponentBag.reset();
+        repo.dispose();
+    }
+
+    public void testScopeOverListFilter() {
+        check(scope(groupId("x"),"compile","runtime"));
+    }
+
+    public void testListFilterOverScope() {
+        check(groupIdNot(scope(null,"compile","test"),"y"));
+    }
+
+    public void testNestedScopes() {
+        check(scope(scope(null,"compile","test"),"compile","runtime"));
+    }
+
+    public void testSubtract() {
+        // everything below x:f, which is x:f and x:c
+        GraphFilter below = new GraphFilter() {
+            public DependencyGraph process() {
+                for (Node n : input.getAllNodes())
+                    if(n.artifactId.equals("f"))
+                        return input.createSubGraph(n);
+                throw new AssertionError();
+            }
+        };
+        FilterPlan plan = check(groupId(subtract(scope(null,"compile","test"),below),"x"));
+        assertTrue(plan.toString(),plan.toString().contains("minus"));
+    }
+
+    public void testExpensiveFiltersLast() {
+        ManifestEntryFilter m = new ManifestEntryFilter();
+        m.setHas(StubRepository.MANIFEST_ENTRY);
+        m.add(groupId(null,"x"));
+        FilterPlan plan = check(scope(m,"compile","test"));
+        assertTrue(plan.toString(),plan.toString().contains("nodes=GroupIdFilter,ManifestEntryFilter"));
+    }
+
+    public void testPlanIsFused() {
+        FilterPlan plan = check(scope(groupId(scope(null,"compile","test"),"x"),"compile","runtime"));
+        assertTrue(plan.toString(),plan.toString().startsWith("select scopes=[compile] nodes=GroupIdFilter"));
+    }
+
+    /**
+     * Checks that the planned evaluation of the given filter gives the same graph as the literal one.
+     */
+    private FilterPlan check(GraphFilter f) {
+        FilterPlan plan = FilterPlan.compile(f);
+        assertEquals(plan.toString(),describe(literal(f)),describe(plan.execute()));
+        assertEquals(describe(literal(f)),describe(GraphFilter.process(f)));
+        return plan;
+    }
+
+    /**
+     * Evaluates the given filter tree one filter at a time, without {@link FilterPlan}.
+     * Filters other than the ones {@link FilterPlan} combines are evaluated as they are.
+     */
+    private DependencyGraph literal(GraphFilter f) {
+        DependencyGraph in = f.children.isEmpty() ? input : literal(f.children.get(0));
+        if(f instanceof ScopeFilter)
+            return in.createSubGraph((ScopeFilter)f);
+        if(f instanceof ListFilter)
+            return in.createSubGraph((ListFilter)f);
+        if(f instanceof SubtractFilter) {
+            final DependencyGraph excess = literal(f.children.get(1));
+            return in.createSubGraph(new DefaultGraphVisitor() {
+                public boolean visit(Node node) {
+                    return !excess.contains(node);
+                }
+            });
+        }
+        return f.process();
+    }
+
+    private static ScopeFilter scope(GraphFilter child, String... scopes) {
+        ScopeFilter f = new ScopeFilter(scopes);
+        if(child!=null)     f.add(child);
+        return f;
+    }
+
+    private static GroupIdFilter groupId(GraphFilter child, String groupId) {
+        GroupIdFilter f = new GroupIdFilter();
+        f.setValue(groupId);
+        if(child!=null)     f.add(child);
+        return f;
+    }
+
+    private static GroupIdFilter groupId(String groupId) {
+        return groupId(null,groupId);
+    }
+
+    private static GroupIdFilter groupIdNot(GraphFilter child, String groupId) {
+        GroupIdFilter f = new GroupIdFilter();
+        f.setNot(groupId);
+        if(child!=null)     f.add(child);
+        return f;
+    }
+
+    private static SubtractFilter subtract(GraphFilter base, GraphFilter excess) {
+        SubtractFilter f = new SubtractFilter();
+        f.add(base);
+        f.add(excess);
+        return f;
+    }
+
+    private static Set<String> describe(DependencyGraph g) {
+        Set<String> r = new TreeSet<String>();
+        for (Node n : g.getAllNodes()) {
+            r.add(n.getId());
+            for (Edge e : n.getForwardEdges(g))
+                r.add(e.toString());
+        }
+        return r;
+    }
+}
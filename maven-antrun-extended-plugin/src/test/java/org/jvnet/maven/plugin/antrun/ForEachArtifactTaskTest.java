@@ -0,0 +1,140 @@
+package org.jvnet.maven.plugin.antrun;
+
+import junit.framework.TestCase;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+import org.apache.tools.ant.Task;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests how {@link ForEachArtifactTask} binds artifacts to the attributes of the nested tasks.
+ */
+public class ForEachArtifactTaskTest extends TestCase {
+    private StubRepository repo;
+    private MavenComponentBag bag;
+    private File buildFile;
+
+    protected void setUp() throws Exception {
+        repo = new StubRepository();
+        repo.add("test","a","1","test:b:1");
+        repo.add("test","b","1","test:c:1");
+        repo.add("test","c","1");
+        repo.add("test","d","1","test:e:1:test");
+        repo.add("test","e","1");
+        bag = repo.createBag(repo.add("test","root","1","test:a:1","test:d:1"));
+        buildFile = File.createTempFile("build",".xml");
+    }
+
+    protected void tearDown() throws Exception {
+        MavenComponentBag.reset();
+        repo.dispose();
+        buildFile.delete();
+    }
+
+    public void testAttributes() throws Exception {
+        List<String> r = run("<forEachArtifact param='x' parallelism='4'>" +
+            "<sequential><record value='@{x.groupId}|@{x.artifactId}|@{x.version}|@{x.type}|@{x.classifier}|@{x.packaging}|@{x.id}'/>" +
+            "</sequential></forEachArtifact>");
+        Collections.sort(r);
+        assertEquals("[" +
+            "test|a|1|jar||jar|test:a, " +
+            "test|b|1|jar||jar|test:b, " +
+            "test|c|1|jar||jar|test:c, " +
+            "test|d|1|jar||jar|test:d, " +
+            "test|e|1|jar||jar|test:e, " +
+            "test|root|1|jar||jar|test:root]",r.toString());
+    }
+
+    /**
+     * Each iteration sees the file of its own artifact, even when they run concurrently.
+     */
+    public void testFile() throws Exception {
+        List<String> r = run("<forEachArtifact parallelism='4'>" +
+            "<sequential><record value='@{artifact.artifactId}|@{artifact.file}'/>" +
+            "</sequential></forEachArtifact>");
+        assertEquals(6,r.size());
+        for (String s : r) {
+            String artifactId = s.substring(0,s.indexOf('|'));
+            File f = new File(s.substring(s.indexOf('|')+1));
+            assertTrue(s,f.exists());
+            if(artifactId.equals("root"))
+                assertEquals(bag.project.getArtifact().getFile(),f);
+            else
+                assertTrue(s,f.getName().startsWith(artifactId+'-'));
+        }
+    }
+
+    public void testFilter() throws Exception {
+        List<String> r = run("<forEachArtifact>" +
+            "<scope level='compile,runtime'/>" +
+            "<sequential><record value='@{artifact.artifactId}'/>" +
+            "</sequential></forEachArtifact>");
+        Collections.sort(r);
+        assertEquals("[a, b, c, d, root]",r.toString());
+    }
+
+    /**
+     * Dependencies are processed before the artifacts that depend on them.
+     */
+    public void testTopologicalOrder() throws Exception {
+        List<String> r = run("<forEachArtifact parallelism='4' topologicalOrder='true'>" +
+            "<sequential><record value='@{artifact.artifactId}'/>" +
+            "</sequential></forEachArtifact>");
+        assertEquals(6,r.size());
+        assertTrue(r.toString(),r.indexOf("c")<r.indexOf("b"));
+        assertTrue(r.toString(),r.indexOf("e")<r.indexOf("d"));
+        assertTrue(r.toString(),r.indexOf("b")<r.indexOf("a"));
+        assertTrue(r.toString(),r.indexOf("a")<r.indexOf("root"));
+        assertTrue(r.toString(),r.indexOf("d")<r.indexOf("root"));
+    }
+
+    /**
+     * Runs the given &lt;forEachArtifact> in a build script, and returns the values
+     * that the nested &lt;record> tasks saw, in the order they ran.
+     */
+    private List<String> run(String forEach) throws IOException {
+        Writer w = new FileWriter(buildFile);
+        try {
+            w.write("<project name='test' default='run'>" +
+                "<taskdef name='forEachArtifact' classname='"+ForEachArtifactTask.class.getName()+"'/>" +
+                "<typedef name='scope' classname='"+ScopeFilter.class.getName()+"'/>" +
+                "<taskdef name='record' classname='"+Record.class.getName()+"'/>" +
+                "<target name='run'>" +
+                forEach +
+                "</target>" +
+                "</project>");
+        } finally {
+            w.close();
+        }
+
+        Project project = new Project();
+        project.init();
+        List<String> r = Collections.synchronizedList(new ArrayList<String>());
+        project.addReference(Record.class.getName(),r);
+        ProjectHelper.configureProject(project,buildFile);
+        project.executeTarget("run");
+        return new ArrayList<String>(r);
+    }
+
+    /**
+     * Records the value it's given.
+     */
+    public static class Record extends Task {
+        private String value;
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+
+        public void execute() {
+            ((List<String>)getProject().getReference(Record.class.getName())).add(value);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.jvnet.maven.plugin.antrun;
+
+import junit.framework.TestCase;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.jvnet.maven.plugin.antrun.DependencyGraph.Node;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests building a graph by {@linkplain DependencyGraph.Options#previous(DependencyGraph) updating a previous one}.
+ */
+public class IncrementalGraphTest extends TestCase {
+    private StubRepository repo;
+    private Model root,a,b,c;
+
+    protected void setUp() throws Exception {
+        repo = new StubRepository();
+        root = repo.add("test","root","1","test:a:1");
+        a = repo.add("test","a","1","test:b:1");
+        b = repo.add("test","b","1","test:c:1");
+        c = repo.add("test","c","1");
+        repo.add("test","d","1");
+    }
+
+    protected void tearDown() throws Exception {
+        MavenComponentBag.reset();
+        repo.dispose();
+    }
+
+    /**
+     * Only the module being built is expanded again if nothing has changed.
+     */
+    public void testNothingChanged() throws Exception {
+        DependencyGraph g1 = build(root,null);
+        int built = repo.pomsBuilt;
+        DependencyGraph g2 = build(root,g1);
+        assertEquals(1,repo.pomsBuilt-built);
+        assertEquals(describe(g1),describe(g2));
+    }
+
+    public void testDependencyChanged() throws Exception {
+        DependencyGraph g1 = build(root,null);
+        b.addDependency(StubRepository.dependency("test:d:1"));
+        repo.install(b);
+
+        DependencyGraph g2 = build(root,g1);
+        assertFalse(artifactIds(g1).contains("d"));
+        assertTrue(artifactIds(g2).contains("d"));
+        assertEquals(describe(build(root,null)),describe(g2));
+    }
+
+    /**
+     * Dependencies inherited from a parent POM count, too.
+     */
+    public void testParentChanged() throws Exception {
+        Model parent = repo.add("test","parent","1");
+        repo.setParent(a,parent);
+        DependencyGraph g1 = build(root,null);
+        assertFalse(artifactIds(g1).contains("d"));
+
+        parent.addDependency(StubRepository.dependency("test:d:1"));
+        repo.install(parent);
+
+        DependencyGraph g2 = build(root,g1);
+        assertTrue(artifactIds(g2).contains("d"));
+        assertEquals(describe(build(root,null)),describe(g2));
+    }
+
+    /**
+     * pom.xml of the module being built may change without being installed in the local repository.
+     */
+    public void testProjectPomChanged() throws Exception {
+        DependencyGraph g1 = build(root,null);
+
+        Model edited = copy(root);
+        edited.addDependency(StubRepository.dependency("test:d:1"));
+
+        DependencyGraph g2 = build(edited,g1);
+        assertTrue(artifactIds(g2).contains("d"));
+        assertEquals(describe(build(edited,null)),describe(g2));
+    }
+
+    /**
+     * A module that's now depended on as a different type isn't taken from the previous graph.
+     */
+    public void testTypeChanged() throws Exception {
+        DependencyGraph g1 = build(root,null);
+
+        Model edited = copy(root);
+        ((Dependency)edited.getDependencies().get(0)).setType("ejb");
+
+        DependencyGraph g2 = build(edited,g1);
+        for (Node n : g2.getAllNodes())
+            if(n.artifactId.equals("a"))
+                assertEquals("ejb",n.type);
+    }
+
+    /**
+     * Builds a graph with a new {@link MavenComponentBag}, as a new build would,
+     * using a previous graph that went through a file.
+     */
+    private DependencyGraph build(Model project, DependencyGraph previous) throws Exception {
+        if(previous!=null) {
+            StringWriter w = new StringWriter();
+            previous.write(w);
+            previous = DependencyGraph.read(new StringReader(w.toString()));
+        }
+        MavenComponentBag bag = repo.createBag(project);
+        return new DependencyGraph(bag.project.getArtifact(),new DependencyGraph.Options().previous(previous));
+    }
+
+    private static Model copy(Model m) {
+        Model r = new Model();
+        r.setGroupId(m.getGroupId());
+        r.setArtifactId(m.getArtifactId());
+        r.setVersion(m.getVersion());
+        r.setPackaging(m.getPackaging());
+        for (Dependency d : (List<Dependency>)m.getDependencies())
+            r.addDependency(StubRepository.dependency(d.getGroupId()+':'+d.getArtifactId()+':'+d.getVersion()+':'+d.getScope()));
+        return r;
+    }
+
+    private static Set<String> artifactIds(DependencyGraph g) {
+        Set<String> r = new TreeSet<String>();
+        for (Node n : g.getAllNodes())
+            r.add(n.artifactId);
+        return r;
+    }
+
+    private static Set<String> describe(DependencyGraph g) {
+        Set<String> r = new TreeSet<String>();
+        for (Node n : g.getAllNodes()) {
+            r.add(n.getId()+' '+n.version+' '+n.type);
+            for (DependencyGraph.Edge e : n.getForwardEdges(g))
+                r.add(e.toString());
+        }
+        return r;
+    }
+}
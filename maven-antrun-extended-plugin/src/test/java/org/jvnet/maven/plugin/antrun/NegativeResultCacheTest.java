@@ -0,0 +1,228 @@
+package org.jvnet.maven.plugin.antrun;
+
+import junit.framework.TestCase;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.project.ProjectBuildingException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Tests {@link NegativeResultCache}.
+ */
+public class NegativeResultCacheTest extends TestCase {
+    private static final long HOUR = 60*60*1000L;
+
+    private File file;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("negative",".properties");
+        file.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRememberedAcrossBuilds() throws IOException {
+        NegativeResultCache c = new NegativeResultCache(file,HOUR);
+        assertFalse(c.isKnownFailure("pom:g:a:1"));
+        c.addFailure("pom:g:a:1");
+        assertTrue(c.isKnownFailure("pom:g:a:1"));
+        c.save();
+
+        c = new NegativeResultCache(file,HOUR);
+        assertTrue(c.isKnownFailure("pom:g:a:1"));
+        assertFalse(c.isKnownFailure("pom:g:b:1"));
+    }
+
+    public void testNothingWrittenWithoutFailures() throws IOException {
+        NegativeResultCache c = new NegativeResultCache(file,HOUR);
+        c.isKnownFailure("pom:g:a:1");
+        c.save();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * The lifetime is applied when entries are read, so builds with different lifetimes can share the file.
+     */
+    public void testExpiry() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("pom:g:old:1",String.valueOf(System.currentTimeMillis()-2*HOUR));
+        p.setProperty("pom:g:new:1",String.valueOf(System.currentTimeMillis()));
+        p.setProperty("pom:g:corrupted:1","yesterday");
+        store(p);
+
+        NegativeResultCache c = new NegativeResultCache(file,HOUR);
+        assertFalse(c.isKnownFailure("pom:g:old:1"));
+        assertTrue(c.isKnownFailure("pom:g:new:1"));
+        assertFalse(c.isKnownFailure("pom:g:corrupted:1"));
+
+        c = new NegativeResultCache(file,3*HOUR);
+        assertTrue(c.isKnownFailure("pom:g:old:1"));
+    }
+
+    /**
+     * Two builds that share the same file don't lose each other's failures.
+     */
+    public void testMergeOnSave() throws IOException {
+        NegativeResultCache c1 = new NegativeResultCache(file,HOUR);
+        NegativeResultCache c2 = new NegativeResultCache(file,HOUR);
+        c1.addFailure("pom:g:a:1");
+        c2.addFailure("pom:g:b:1");
+        c1.save();
+        c2.save();
+
+        NegativeResultCache c = new NegativeResultCache(file,HOUR);
+        assertTrue(c.isKnownFailure("pom:g:a:1"));
+        assertTrue(c.isKnownFailure("pom:g:b:1"));
+    }
+
+    /**
+     * Expired entries are dropped from the file when it's written back.
+     */
+    public void testExpiredEntriesAreNotWrittenBack() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("pom:g:old:1",String.valueOf(System.currentTimeMillis()-2*HOUR));
+        store(p);
+
+        NegativeResultCache c = new NegativeResultCache(file,HOUR);
+        c.addFailure("pom:g:a:1");
+        c.save();
+
+        assertFalse(new NegativeResultCache(file,3*HOUR).isKnownFailure("pom:g:old:1"));
+    }
+
+    /**
+     * Only failures that would happen again are remembered, not network errors and the like.
+     */
+    public void testTransientFailuresAreNotRemembered() throws Exception {
+        StubRepository repo = new StubRepository();
+        try {
+            MavenComponentBag bag = repo.createBag(repo.add("test","root","1"));
+            NegativeResultCache c = new NegativeResultCache(file,HOUR);
+            bag.setNegativeResultCache(c);
+            repo.setMissing("test:missing");
+            repo.setUnreachable("test:unreachable");
+
+            Artifact missing = bag.createArtifactWithClassifier("test","missing","1","jar",null);
+            try {
+                bag.resolveArtifact(missing);
+                fail();
+            } catch (ArtifactNotFoundException e) {
+                // expected
+            }
+            assertTrue(c.isKnownFailure(NegativeResultCache.artifactKey(missing)));
+
+            Artifact unreachable = bag.createArtifactWithClassifier("test","unreachable","1","jar",null);
+            try {
+                bag.resolveArtifact(unreachable);
+                fail();
+            } catch (ArtifactResolutionException e) {
+                // expected
+            }
+            assertFalse(c.isKnownFailure(NegativeResultCache.artifactKey(unreachable)));
+
+            try {
+                bag.buildProject("test","nopom","1",false);
+                fail();
+            } catch (ProjectBuildingException e) {
+                // expected
+            }
+            assertTrue(c.isKnownFailure(NegativeResultCache.pomKey("test","nopom","1")));
+        } finally {
+            repo.dispose();
+        }
+    }
+
+    /**
+     * Something that failed before is picked up as soon as it's installed in the local repository,
+     * and the failure is forgotten.
+     */
+    public void testInstalledLocallyAfterFailure() throws Exception {
+        StubRepository repo = new StubRepository();
+        try {
+            MavenComponentBag bag = repo.createBag(repo.add("test","root","1"));
+            NegativeResultCache c = new NegativeResultCache(file,HOUR);
+            bag.setNegativeResultCache(c);
+            repo.setMissing("test:late");
+
+            try {
+                bag.buildProject("test","late","1",false);
+                fail();
+            } catch (ProjectBuildingException e) {
+                // expected
+            }
+            Artifact jar = bag.createArtifactWithClassifier("test","late","1","jar",null);
+            try {
+                bag.resolveArtifact(jar);
+                fail();
+            } catch (ArtifactNotFoundException e) {
+                // expected
+            }
+            c.save();
+
+            // next build, after the module is installed
+            repo.add("test","late","1");
+            repo.installJar("test","late","1");
+            bag = repo.createBag(repo.add("test","root","1"));
+            c = new NegativeResultCache(file,HOUR);
+            bag.setNegativeResultCache(c);
+
+            assertNotNull(bag.buildProject("test","late","1",false));
+            jar = bag.createArtifactWithClassifier("test","late","1","jar",null);
+            bag.resolveArtifact(jar);
+            assertTrue(jar.getFile().exists());
+
+            c.save();
+            c = new NegativeResultCache(file,HOUR);
+            assertFalse(c.isKnownFailure(NegativeResultCache.pomKey("test","late","1")));
+            assertFalse(c.isKnownFailure(NegativeResultCache.artifactKey(jar)));
+        } finally {
+            repo.dispose();
+        }
+    }
+
+    /**
+     * Snapshots can be deployed at any time, so their failures are not remembered,
+     * and one installed locally is used.
+     */
+    public void testSnapshotsAreNotRemembered() throws Exception {
+        StubRepository repo = new StubRepository();
+        try {
+            MavenComponentBag bag = repo.createBag(repo.add("test","root","1"));
+            NegativeResultCache c = new NegativeResultCache(file,HOUR);
+            bag.setNegativeResultCache(c);
+            repo.setMissing("test:snapshot");
+
+            Artifact a = bag.createArtifactWithClassifier("test","snapshot","1.0-SNAPSHOT","jar",null);
+            try {
+                bag.resolveArtifact(a);
+                fail();
+            } catch (ArtifactNotFoundException e) {
+                // expected
+            }
+            assertFalse(c.isKnownFailure(NegativeResultCache.artifactKey(a)));
+
+            repo.installJar("test","snapshot","1.0-SNAPSHOT");
+            bag.resolveArtifact(a);
+            assertTrue(a.getFile().exists());
+        } finally {
+            repo.dispose();
+        }
+    }
+
+    private void store(Properties p) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            p.store(os,null);
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.jvnet.maven.plugin.antrun;
+
+import junit.framework.TestCase;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests how {@link ResolveAllTask} handles artifacts that fail to resolve.
+ */
+public class ResolveAllTaskTest extends TestCase {
+    private StubRepository repo;
+    private MavenComponentBag bag;
+    private Project project;
+
+    protected void setUp() throws Exception {
+        repo = new StubRepository();
+        repo.add("test","a","1","test:b:1");
+        repo.add("test","b","1","test:c:1");
+        repo.add("test","c","1");
+        repo.add("test","d","1");
+        bag = repo.createBag(repo.add("test","root","1","test:a:1","test:d:1"));
+        project = new Project();
+    }
+
+    protected void tearDown() throws Exception {
+        MavenComponentBag.reset();
+        repo.dispose();
+    }
+
+    public void testResolve() {
+        assertEquals("[a, b, c, d, root]",resolve(false,1).toString());
+    }
+
+    public void testMissing() {
+        repo.setMissing("test:b");
+        try {
+            resolve(false,1);
+            fail();
+        } catch (BuildException e) {
+            assertTrue(e.getCause() instanceof ArtifactNotFoundException);
+        }
+    }
+
+    public void testSkipMissing() {
+        repo.setMissing("test:b");
+        repo.setMissing("test:d");
+        assertEquals("[a, c, root]",resolve(true,1).toString());
+        assertEquals("[a, c, root]",resolve(true,4).toString());
+    }
+
+    /**
+     * Only artifacts that don't exist are skipped, not the ones that failed to download.
+     */
+    public void testSkipMissingDoesNotSkipErrors() {
+        repo.setMissing("test:b");
+        repo.setUnreachable("test:d");
+        try {
+            resolve(true,4);
+            fail();
+        } catch (BuildException e) {
+            assertFalse(e.getCause() instanceof ArtifactNotFoundException);
+        }
+    }
+
+    /**
+     * Failing to find an artifact without any remote repository doesn't mean it's not in them.
+     */
+    public void testOfflineMissIsNotRemembered() throws Exception {
+        Artifact a = bag.createArtifactWithClassifier("test","a","1","jar",null);
+        try {
+            bag.resolveArtifact(a,Collections.EMPTY_LIST);
+            fail();
+        } catch (ArtifactNotFoundException e) {
+            // expected
+        }
+        bag.resolveArtifact(a);
+        assertTrue(a.getFile().exists());
+    }
+
+    /**
+     * Runs &lt;resolveAll> into a path, and returns the artifactIds of the jars in there.
+     */
+    private List<String> resolve(boolean skipMissing, int parallelism) {
+        ResolveAllTask t = new ResolveAllTask();
+        t.setProject(project);
+        t.setTaskName("resolveAll");
+        t.setPathId("path");
+        t.setSkipMissing(skipMissing);
+        t.setParallelism(parallelism);
+        t.setTopologicalOrder(false);
+        t.execute();
+
+        List<String> r = new ArrayList<String>();
+        for (String f : ((Path)project.getReference("path")).list()) {
+            String name = new File(f).getName();
+            r.add(name.equals(bag.project.getArtifact().getFile().getName()) ? "root" : name.substring(0,name.indexOf('-')));
+        }
+        return r;
+    }
+}
@@ -0,0 +1,374 @@
+package org.jvnet.maven.plugin.antrun;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * POMs kept in memory, behind stand-ins for the Maven components that {@link MavenComponentBag} exposes,
+ * so that graphs can be built without a real repository.
+ *
+ * <p>
+ * Every POM is also written to a temporary local repository, so that
+ * {@linkplain MavenComponentBag#getPomFingerprint(MavenProject) POM fingerprints} work,
+ * and every artifact is downloaded to it as a tiny jar unless it's {@linkplain #setMissing(String) missing}.
+ * Only the methods that the graph engine uses are implemented.
+ */
+final class StubRepository {
+    /**
+     * Manifest main attribute present in the jar of every artifact.
+     */
+    static final String MANIFEST_ENTRY = "Stub-Entry";
+
+    final File localRepository;
+    private final File jar;
+
+    /**
+     * POMs keyed by "groupId:artifactId:version".
+     */
+    private final Map<String,Model> models = new HashMap<String,Model>();
+
+    /**
+     * "groupId:artifactId" of the artifacts that don't exist in the remote repository.
+     */
+    private final Set<String> missing = new HashSet<String>();
+
+    /**
+     * "groupId:artifactId" of the artifacts that fail to download.
+     */
+    private final Set<String> unreachable = new HashSet<String>();
+
+    /**
+     * Remote repositories given to every {@link ArtifactResolver#resolve(Artifact, List, ArtifactRepository)} call.
+     */
+    final List<List> resolutions = Collections.synchronizedList(new ArrayList<List>());
+
+    /**
+     * Number of POMs built so far.
+     */
+    int pomsBuilt;
+
+    private final Map<String,ArtifactHandler> handlers = new HashMap<String,ArtifactHandler>();
+
+    /**
+     * The project that the current {@link MavenComponentBag} is building.
+     */
+    private MavenProject project;
+
+    StubRepository() throws IOException {
+        localRepository = File.createTempFile("repository","");
+        localRepository.delete();
+        localRepository.mkdirs();
+        jar = createJar();
+    }
+
+    /**
+     * Deletes the local repository.
+     */
+    void dispose() {
+        delete(localRepository);
+        jar.delete();
+    }
+
+    /**
+     * Adds a POM with the given dependencies, each as "groupId:artifactId:version[:scope]".
+     */
+    Model add(String groupId, String artifactId, String version, String... dependencies) throws IOException {
+        Model m = new Model();
+        m.setGroupId(groupId);
+        m.setArtifactId(artifactId);
+        m.setVersion(version);
+        m.setPackaging("jar");
+        for (String d : dependencies)
+            m.addDependency(dependency(d));
+        models.put(groupId+':'+artifactId+':'+version,m);
+        install(m);
+        return m;
+    }
+
+    /**
+     * Makes the given POM inherit from the given parent POM.
+     */
+    void setParent(Model m, Model parent) throws IOException {
+        Parent p = new Parent();
+        p.setGroupId(parent.getGroupId());
+        p.setArtifactId(parent.getArtifactId());
+        p.setVersion(parent.getVersion());
+        m.setParent(p);
+        install(m);
+    }
+
+    static Dependency dependency(String coordinate) {
+        String[] t = coordinate.split(":");
+        Dependency d = new Dependency();
+        d.setGroupId(t[0]);
+        d.setArtifactId(t[1]);
+        d.setVersion(t[2]);
+        d.setScope(t.length>3 ? t[3] : "compile");   // as Maven fills in the default scope
+        return d;
+    }
+
+    /**
+     * Writes the given POM to the local repository again, as if it's downloaded or installed again
+     * after a change.
+     */
+    void install(Model m) throws IOException {
+        File f = new File(localRepository,pathOf(m.getGroupId(),m.getArtifactId(),m.getVersion(),"pom",null));
+        long lastModified = f.lastModified();
+        f.getParentFile().mkdirs();
+        Writer w = new FileWriter(f);
+        try {
+            w.write(m.getGroupId()+':'+m.getArtifactId()+':'+m.getVersion()+'\n');
+            if(m.getParent()!=null)
+                w.write("parent "+m.getParent().getId()+'\n');
+            for (Dependency d : (List<Dependency>)m.getDependencies())
+                w.write("dependency "+d.getManagementKey()+':'+d.getVersion()+':'+d.getScope()+'\n');
+        } finally {
+            w.close();
+        }
+        // make sure the change is visible even if the file system has a coarse timestamp
+        if(lastModified!=0)
+            f.setLastModified(Math.max(lastModified+2000,f.lastModified()));
+    }
+
+    /**
+     * Puts the jar of the given artifact in the local repository, as "mvn install:install-file" does.
+     */
+    void installJar(String groupId, String artifactId, String version) throws IOException {
+        File f = new File(localRepository,pathOf(groupId,artifactId,version,"jar",null));
+        f.getParentFile().mkdirs();
+        writeJar(f);
+    }
+
+    /**
+     * Makes the given artifact not found in the remote repository.
+     */
+    void setMissing(String groupIdAndArtifactId) {
+        missing.add(groupIdAndArtifactId);
+    }
+
+    /**
+     * Makes the given artifact fail to download, as if the network is down.
+     */
+    void setUnreachable(String groupIdAndArtifactId) {
+        unreachable.add(groupIdAndArtifactId);
+    }
+
+    /**
+     * Creates a new {@link MavenComponentBag} that builds the given project, and associates
+     * it with the current thread, just like {@link AntRunMojo} does.
+     *
+     * <p>
+     * Like a real {@link MavenProjectBuilder}, which has the project being built in its cache,
+     * this project is used instead of its POM in the local repository, which may be stale.
+     */
+    MavenComponentBag createBag(Model model) {
+        project = new MavenProject(model);
+        project.setArtifact(createArtifact(model.getGroupId(),model.getArtifactId(),
+            VersionRange.createFromVersion(model.getVersion()),null,"jar",null));
+        project.getArtifact().setFile(jar);
+
+        ArtifactRepository remote = proxy(ArtifactRepository.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if(method.getName().equals("getId"))
+                    return "remote";
+                throw new UnsupportedOperationException(method.toString());
+            }
+        });
+
+        MavenComponentBag bag = new MavenComponentBag(
+            proxy(ArtifactResolver.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                    if(method.getName().equals("resolve") && args.length==3) {
+                        Artifact a = (Artifact) args[0];
+                        resolutions.add((List)args[1]);
+                        String key = a.getGroupId()+':'+a.getArtifactId();
+                        if(unreachable.contains(key))
+                            throw new ArtifactResolutionException("Connection refused",a);
+                        File local = new File(localRepository,pathOf(a.getGroupId(),a.getArtifactId(),a.getVersion(),a.getType(),a.getClassifier()));
+                        if(missing.contains(key) || ((List)args[1]).isEmpty()) {
+                            // what's installed locally is used if the remote repositories don't have it
+                            if(!local.exists())
+                                throw new ArtifactNotFoundException("Not found",a);
+                        }
+                        a.setFile(download(a));
+                        a.setResolved(true);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            }),
+            proxy(ArtifactFactory.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    String g = (String) args[0];
+                    String a = (String) args[1];
+                    if(name.equals("createProjectArtifact") && args.length==3)
+                        return createArtifact(g,a,VersionRange.createFromVersion((String)args[2]),null,"pom",null);
+                    if(name.equals("createDependencyArtifact") && args.length>=6)
+                        return createArtifact(g,a,(VersionRange)args[2],(String)args[5],(String)args[3],(String)args[4]);
+                    if(name.equals("createArtifactWithClassifier"))
+                        return createArtifact(g,a,VersionRange.createFromVersion((String)args[2]),null,(String)args[3],(String)args[4]);
+                    if(name.equals("createArtifact"))
+                        return createArtifact(g,a,VersionRange.createFromVersion((String)args[2]),(String)args[3],(String)args[4],null);
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            }),
+            proxy(ArtifactRepository.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if(method.getName().equals("getBasedir"))
+                        return localRepository.getPath();
+                    if(method.getName().equals("pathOf")) {
+                        Artifact a = (Artifact) args[0];
+                        return pathOf(a.getGroupId(),a.getArtifactId(),a.getVersion(),a.getType(),a.getClassifier());
+                    }
+                    if(method.getName().equals("getId"))
+                        return "local";
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            }),
+            Collections.singletonList(remote),
+            project,
+            null,
+            null,
+            null,
+            proxy(MavenProjectBuilder.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws ProjectBuildingException {
+                    if(method.getName().equals("buildFromRepository")) {
+                        Artifact a = (Artifact) args[0];
+                        return build(a.getGroupId(),a.getArtifactId(),a.getVersion());
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            }));
+        bag.setVerifyArtifact(false);
+        return bag;
+    }
+
+    /**
+     * Builds a project from the given POM, with the dependencies inherited from its parents,
+     * like {@link MavenProjectBuilder} does.
+     */
+    private synchronized MavenProject build(String groupId, String artifactId, String version) throws ProjectBuildingException {
+        String id = groupId+':'+artifactId+':'+version;
+        Model m = models.get(id);
+        if(project!=null && id.equals(project.getGroupId()+':'+project.getArtifactId()+':'+project.getVersion()))
+            m = project.getModel();
+        if(m==null)
+            throw new ProjectBuildingException(id,"No such POM");
+        pomsBuilt++;
+
+        MavenProject parent = null;
+        Model effective = new Model();
+        effective.setGroupId(m.getGroupId());
+        effective.setArtifactId(m.getArtifactId());
+        effective.setVersion(m.getVersion());
+        effective.setPackaging(m.getPackaging());
+        if(m.getParent()!=null) {
+            Parent p = m.getParent();
+            parent = build(p.getGroupId(),p.getArtifactId(),p.getVersion());
+            effective.getDependencies().addAll(parent.getDependencies());
+        }
+        effective.getDependencies().addAll(m.getDependencies());
+
+        MavenProject r = new MavenProject(effective);
+        r.setParent(parent);
+        return r;
+    }
+
+    private Artifact createArtifact(String groupId, String artifactId, VersionRange version, String scope, String type, String classifier) {
+        synchronized (handlers) {
+            ArtifactHandler h = handlers.get(type);
+            if(h==null)
+                handlers.put(type,h=new DefaultArtifactHandler(type));
+            return new DefaultArtifact(groupId,artifactId,version,scope,type,classifier,h);
+        }
+    }
+
+    private static String pathOf(String groupId, String artifactId, String version, String type, String classifier) {
+        return groupId.replace('.','/')+'/'+artifactId+'/'+version+'/'
+            +artifactId+'-'+version+(classifier!=null ? "-"+classifier : "")+'.'+("pom".equals(type) ? "pom" : "jar");
+    }
+
+    /**
+     * Puts the jar of the given artifact in the local repository.
+     */
+    private File download(Artifact a) throws IOException {
+        File f = new File(localRepository,pathOf(a.getGroupId(),a.getArtifactId(),a.getVersion(),a.getType(),a.getClassifier()));
+        if(!f.exists()) {
+            f.getParentFile().mkdirs();
+            writeJar(f);
+        }
+        return f;
+    }
+
+    private static File createJar() throws IOException {
+        File f = File.createTempFile("stub",".jar");
+        f.deleteOnExit();
+        writeJar(f);
+        return f;
+    }
+
+    private static void writeJar(File f) throws IOException {
+        Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,"1.0");
+        m.getMainAttributes().putValue(MANIFEST_ENTRY,"true");
+        new JarOutputStream(new FileOutputStream(f),m).close();
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if(children!=null)
+            for (File c : children)
+                delete(c);
+        f.delete();
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler h) {
+        return type.cast(Proxy.newProxyInstance(StubRepository.class.getClassLoader(),new Class[]{type},new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                // equals/hashCode/toString
+                if(method.getDeclaringClass()==Object.class) {
+                    if(method.getName().equals("equals"))
+                        return proxy==args[0];
+                    if(method.getName().equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    return "Stub "+type.getSimpleName();
+                }
+                return h.invoke(proxy,method,args);
+            }
+        }));
+    }
+}
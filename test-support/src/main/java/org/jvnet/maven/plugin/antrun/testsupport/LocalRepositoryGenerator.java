@@ -0,0 +1,239 @@
+package org.jvnet.maven.plugin.antrun.testsupport;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates a file-based local Maven repository from a {@link RepositorySpec}.
+ *
+ * <p>
+ * Modules are arranged in layers below a single root module. Each module depends on
+ * {@link RepositorySpec#fanOut} modules of the next layer, or more if that's necessary to make every module
+ * reachable from the root. So a dependency graph built from the root covers the whole repository.
+ *
+ * <p>
+ * Every module gets a POM and a jar. Jars contain a manifest with a {@value #MANIFEST_ENTRY} entry,
+ * a <tt>META-INF/services</tt> file shared by all the modules (which is what &lt;rejar> merges),
+ * and an incompressible payload that brings the jar to the requested size.
+ */
+public class LocalRepositoryGenerator {
+    /**
+     * Manifest main attribute that all the generated jars have.
+     */
+    public static final String MANIFEST_ENTRY = "Synthetic-Module";
+
+    /**
+     * Service file that all the generated jars have.
+     */
+    public static final String SERVICE_FILE = "META-INF/services/org.jvnet.synthetic.Service";
+
+    public static final String VERSION = "1.0";
+
+    private final RepositorySpec spec;
+
+    public LocalRepositoryGenerator(RepositorySpec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * A generated module.
+     */
+    public static final class Module {
+        public final String groupId, artifactId, version;
+
+        /**
+         * Modules that this module depends on.
+         */
+        private final List<Module> dependencies = new ArrayList<Module>();
+        private final List<String> scopes = new ArrayList<String>();
+        private final List<Module> exclusions = new ArrayList<Module>();
+
+        private Module(String groupId, String artifactId, String version) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+        }
+
+        /**
+         * Gets the location of this module's file of the given extension, like "pom" or "jar",
+         * in the default repository layout.
+         */
+        public File getFile(File repository, String extension) {
+            return new File(repository,
+                groupId.replace('.','/')+'/'+artifactId+'/'+version+'/'+artifactId+'-'+version+'.'+extension);
+        }
+
+        public List<Module> getDependencies() {
+            return Collections.unmodifiableList(dependencies);
+        }
+
+        public String toString() {
+            return groupId+':'+artifactId+':'+version;
+        }
+    }
+
+    /**
+     * Generates the repository into the given directory.
+     * Existing files are overwritten.
+     *
+     * @return
+     *      All the generated modules. The first one is the root.
+     */
+    public List<Module> generate(File repository) throws IOException {
+        List<Module> modules = plan();
+        byte[] payload = new byte[(int)Math.min(spec.jarSize,Integer.MAX_VALUE)];
+        new Random(spec.seed).nextBytes(payload);
+
+        for (Module m : modules) {
+            File pom = m.getFile(repository,"pom");
+            pom.getParentFile().mkdirs();
+            writePom(m,pom);
+            writeJar(m,m.getFile(repository,"jar"),payload);
+        }
+        return modules;
+    }
+
+    /**
+     * Computes the modules and dependencies among them without writing anything.
+     */
+    public List<Module> plan() {
+        Random random = new Random(spec.seed);
+        List<Module> modules = new ArrayList<Module>(spec.nodes);
+        for( int i=0; i<spec.nodes; i++ )
+            // spread artifacts over groups of 20 or so, just like real projects
+            modules.add(new Module(spec.group+".g"+(i/20),"m"+i,VERSION));
+
+        // layer k is [start[k],start[k+1]). the root is alone in layer 0.
+        int depth = Math.min(spec.depth,spec.nodes-1);
+        int[] start = new int[depth+2];
+        start[0] = 0;
+        for( int k=1; k<=depth+1; k++ )
+            start[k] = 1+(int)((long)(k-1)*(spec.nodes-1)/Math.max(depth,1));
+
+        for( int k=0; k<depth; k++ ) {
+            int from = start[k], to = start[k+1], next = start[k+2];
+            int size = to-from, nextSize = next-to;
+            if(nextSize==0) continue;
+
+            List<Set<Integer>> deps = new ArrayList<Set<Integer>>(size);
+            for( int i=0; i<size; i++ )
+                deps.add(new LinkedHashSet<Integer>());
+
+            // make sure everything in the next layer is reachable
+            for( int j=0; j<nextSize; j++ )
+                deps.get(j%size).add(to+j);
+            // then fill up to the fan-out
+            for( int i=0; i<size; i++ ) {
+                Set<Integer> d = deps.get(i);
+                int n = Math.min(spec.fanOut,nextSize);
+                while(d.size()<n)
+                    d.add(to+random.nextInt(nextSize));
+            }
+
+            for( int i=0; i<size; i++ ) {
+                Module src = modules.get(from+i);
+                for (Integer dst : deps.get(i)) {
+                    src.dependencies.add(modules.get(dst));
+                    src.scopes.add(random.nextDouble()<spec.testDensity ? "test" : "compile");
+                    // exclude something further down, if any
+                    if(next<spec.nodes && random.nextDouble()<spec.exclusionDensity)
+                        src.exclusions.add(modules.get(next+random.nextInt(spec.nodes-next)));
+                    else
+                        src.exclusions.add(null);
+                }
+            }
+        }
+        return modules;
+    }
+
+    private void writePom(Module m, File pom) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(pom),"UTF-8");
+        try {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            w.write("<project>\n");
+            w.write("  <modelVersion>4.0.0</modelVersion>\n");
+            writeCoordinates(w,"  ",m);
+            w.write("  <packaging>jar</packaging>\n");
+            if(!m.dependencies.isEmpty()) {
+                w.write("  <dependencies>\n");
+                for( int i=0; i<m.dependencies.size(); i++ ) {
+                    w.write("    <dependency>\n");
+                    writeCoordinates(w,"      ",m.dependencies.get(i));
+                    w.write("      <scope>"+m.scopes.get(i)+"</scope>\n");
+                    Module exc = m.exclusions.get(i);
+                    if(exc!=null) {
+                        w.write("      <exclusions>\n");
+                        w.write("        <exclusion>\n");
+                        w.write("          <groupId>"+exc.groupId+"</groupId>\n");
+                        w.write("          <artifactId>"+exc.artifactId+"</artifactId>\n");
+                        w.write("        </exclusion>\n");
+                        w.write("      </exclusions>\n");
+                    }
+                    w.write("    </dependency>\n");
+                }
+                w.write("  </dependencies>\n");
+            }
+            w.write("</project>\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    private void writeCoordinates(Writer w, String indent, Module m) throws IOException {
+        w.write(indent+"<groupId>"+m.groupId+"</groupId>\n");
+        w.write(indent+"<artifactId>"+m.artifactId+"</artifactId>\n");
+        w.write(indent+"<version>"+m.version+"</version>\n");
+    }
+
+    private void writeJar(Module m, File jar, byte[] payload) throws IOException {
+        Manifest man = new Manifest();
+        man.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,"1.0");
+        man.getMainAttributes().putValue(MANIFEST_ENTRY,m.toString());
+
+        JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)),man);
+        try {
+            out.putNextEntry(new JarEntry(SERVICE_FILE));
+            out.write(("org.jvnet.synthetic."+m.artifactId+"\n").getBytes("UTF-8"));
+            out.closeEntry();
+
+            out.putNextEntry(new JarEntry("synthetic/"+m.artifactId+".bin"));
+            out.write(payload);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Command line entry point. Takes the target directory and optionally the spec.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length<1 || args.length>2) {
+            System.err.println("Usage: java "+LocalRepositoryGenerator.class.getName()+" DIR [SPEC]");
+            System.err.println("  SPEC defaults to "+new RepositorySpec());
+            System.exit(1);
+        }
+        RepositorySpec spec = args.length>1 ? RepositorySpec.parse(args[1]) : new RepositorySpec();
+        File dir = new File(args[0]);
+
+        long start = System.currentTimeMillis();
+        List<Module> modules = new LocalRepositoryGenerator(spec).generate(dir);
+        System.out.println("Generated "+modules.size()+" modules into "+dir+" in "+(System.currentTimeMillis()-start)+"ms");
+        System.out.println("Root module is "+modules.get(0));
+    }
+}
@@ -0,0 +1,88 @@
+package org.jvnet.maven.plugin.antrun.testsupport;
+
+import java.util.StringTokenizer;
+
+/**
+ * Compact description of a synthetic repository to be generated by {@link LocalRepositoryGenerator}.
+ *
+ * <p>
+ * The string form is a comma-separated list of <tt>key=value</tt> pairs, such as
+ * <tt>nodes=1000,depth=6,fanout=4,exclusions=0.05,jarsize=16k</tt>. Keys are:
+ *
+ * <dl>
+ * <dt>nodes<dd>Number of modules, including the root module.
+ * <dt>depth<dd>Number of dependency layers below the root.
+ * <dt>fanout<dd>Number of dependencies each module declares on the next layer.
+ * <dt>exclusions<dd>Probability that a dependency carries an exclusion, 0 to 1.
+ * <dt>test<dd>Probability that a dependency is test-scoped, 0 to 1.
+ * <dt>jarsize<dd>Approximate size of each jar in bytes. 'k' and 'm' suffixes are allowed.
+ * <dt>seed<dd>Random seed. The same spec always generates the same repository.
+ * <dt>group<dd>Prefix of the generated groupIds.
+ * </dl>
+ *
+ * Omitted keys take the default values of the fields.
+ */
+public final class RepositorySpec {
+    public int nodes = 1000;
+    public int depth = 6;
+    public int fanOut = 4;
+    public double exclusionDensity = 0;
+    public double testDensity = 0;
+    public long jarSize = 4*1024;
+    public long seed = 42;
+    public String group = "synthetic";
+
+    public RepositorySpec() {
+    }
+
+    /**
+     * Parses the string form.
+     *
+     * @throws IllegalArgumentException
+     *      if the string is malformed.
+     */
+    public static RepositorySpec parse(String spec) {
+        RepositorySpec r = new RepositorySpec();
+        StringTokenizer tokens = new StringTokenizer(spec,", ");
+        while(tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            int idx = token.indexOf('=');
+            if(idx<0)
+                throw new IllegalArgumentException("Expected key=value but found "+token);
+            String key = token.substring(0,idx).trim().toLowerCase();
+            String value = token.substring(idx+1).trim();
+            try {
+                if(key.equals("nodes"))             r.nodes = Integer.parseInt(value);
+                else if(key.equals("depth"))        r.depth = Integer.parseInt(value);
+                else if(key.equals("fanout"))       r.fanOut = Integer.parseInt(value);
+                else if(key.equals("exclusions"))   r.exclusionDensity = Double.parseDouble(value);
+                else if(key.equals("test"))         r.testDensity = Double.parseDouble(value);
+                else if(key.equals("jarsize"))      r.jarSize = parseSize(value);
+                else if(key.equals("seed"))         r.seed = Long.parseLong(value);
+                else if(key.equals("group"))        r.group = value;
+                else
+                    throw new IllegalArgumentException("Unknown key "+key+" in "+spec);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Illegal value for "+key+": "+value,e);
+            }
+        }
+        if(r.nodes<1 || r.depth<1 || r.fanOut<1)
+            throw new IllegalArgumentException("nodes, depth, and fanout need to be positive: "+spec);
+        return r;
+    }
+
+    private static long parseSize(String value) {
+        String v = value.toLowerCase();
+        long unit = 1;
+        if(v.endsWith("k")) unit = 1024;
+        if(v.endsWith("m")) unit = 1024*1024;
+        if(unit!=1)
+            v = v.substring(0,v.length()-1);
+        return Long.parseLong(v)*unit;
+    }
+
+    public String toString() {
+        return "nodes="+nodes+",depth="+depth+",fanout="+fanOut+",exclusions="+exclusionDensity
+            +",test="+testDensity+",jarsize="+jarSize+",seed="+seed+",group="+group;
+    }
+}